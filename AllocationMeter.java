@@ -0,0 +1,108 @@
+/**
+ * AllocationMeter.java - heap bytes allocated by the render thread per
+ *           frame, checked against a budget (za).
+ *
+ * Samples ThreadMXBean.getThreadAllocatedBytes of the GL thread. P3 calls
+ * start when an interval begins and sample when it ends, before anything
+ * is logged, so the count covers the frame loop only and not the
+ * reporting. The frame loop is meant to allocate nothing once it is
+ * running; the first interval is logged but not checked since it still
+ * runs interpreted code, whose iterators and boxes the JIT later removes.
+ *
+ * The budget is bytes per frame, 16 unless the ALLOCBUDGET environment
+ * variable sets it: less than one object per frame, so any per-frame
+ * allocation shows, while a stray one-off in an interval does not. Over
+ * budget is logged as an error; in a batch run (rb) it also ends the run
+ * and P3 exits with status 1.
+ *
+ * 10/17/26 created for the za test option.
+ */
+import java.lang.management.*;
+
+public class AllocationMeter {
+	// ------------------ class variables ------------------------------
+	static boolean enabled = false; // za
+	static final String BUDGET_ENV = "ALLOCBUDGET";
+
+	private static com.sun.management.ThreadMXBean threads = null;
+	private static long threadId;
+	private static float budget = 16; // bytes per frame
+
+	// -------- the current interval
+	private static long startBytes = -1;
+	private static long intervalBytes = 0;
+	private static int intervals = 0;
+	private static boolean failed = false;
+
+	// ------------------------ setup -----------------------------
+	/**
+	 * Start metering the calling thread, which must be the GL thread.
+	 * Disables the option if the JVM cannot count allocated bytes.
+	 */
+	static void setup() {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (!(bean instanceof com.sun.management.ThreadMXBean)
+				|| !((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+			System.err.println("***** za: this JVM does not count allocated bytes; allocation meter disabled");
+			enabled = false;
+			return;
+		}
+		threads = (com.sun.management.ThreadMXBean) bean;
+		threads.setThreadAllocatedMemoryEnabled(true);
+		threadId = Thread.currentThread().getId();
+		String env = System.getenv(BUDGET_ENV);
+		if (env != null) {
+			try {
+				budget = Float.parseFloat(env);
+			} catch (NumberFormatException e) {
+				System.err.println("***** " + BUDGET_ENV + "=" + env + " is not a number; budget stays " + budget);
+			}
+		}
+		System.err.println("Allocation meter: budget " + budget + " bytes/frame");
+	}
+
+	// ------------------------ start -----------------------------
+	/**
+	 * An interval of frames begins.
+	 */
+	static void start() {
+		if (enabled)
+			startBytes = threads.getThreadAllocatedBytes(threadId);
+	}
+
+	// ------------------------ sample -----------------------------
+	/**
+	 * The interval's frames are done; record what they allocated.
+	 */
+	static void sample() {
+		if (enabled && startBytes >= 0)
+			intervalBytes = threads.getThreadAllocatedBytes(threadId) - startBytes;
+	}
+
+	// ------------------------ failed -----------------------------
+	/**
+	 * True once a checked interval went over budget.
+	 */
+	static boolean failed() {
+		return failed;
+	}
+
+	// ------------------------ report -----------------------------
+	/**
+	 * Log the bytes allocated per frame over the sampled interval and check
+	 * them against the budget; returns false if over.
+	 */
+	public static boolean report(int frames) {
+		if (!enabled || startBytes < 0)
+			return true;
+		float perFrame = intervalBytes / (float) (frames == 0 ? 1 : frames);
+		boolean warmup = intervals++ == 0;
+		P3.log(String.format("Heap allocation per frame (bytes): %10.1f    budget %.1f%s", perFrame, budget,
+				warmup ? "    (warm-up, not checked)" : ""));
+		if (warmup || perFrame <= budget)
+			return true;
+		P3.logErr(String.format("frame loop allocated %.1f bytes/frame, over the budget of %.1f", perFrame, budget));
+		failed = true;
+		return false;
+	}
+}
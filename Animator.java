@@ -0,0 +1,208 @@
+/**
+ * Animator.java - the moving workload (wm): every shape spins about its
+ *           rotation axis at its own angular velocity and drifts at its own
+ *           velocity, bouncing off the -1..1 box the scene is made in.
+ *
+ * step advances one frame of fixed length (1/60 s, so every run does the
+ * same work per frame) on a ForkJoinPool: each task integrates a chunk of
+ * transform slots and recomputes their model matrices with
+ * TransformStore.updateRange. Ranges are multiples of 64 slots, so no two
+ * tasks share a flag word. The renderers then see every shape as moved and
+ * send the matrices in their usual bulk upload: one range with us, the
+ * instance buffer with dm, one per mesh group with di, the re-baked batch
+ * with db; other modes upload per draw.
+ *
+ * Time per frame is split three ways: the CPU update (step), the uploads
+ * the renderers count with countUpload (gathering the changed matrices
+ * and the glBufferSubData), and the rest of the scene redraw (draw). All
+ * are CPU side times. With st the steps run on the simulation thread, one
+ * per tick, so the update is reported per step rather than per frame.
+ *
+ * 10/17/26 created for the wm workload option.
+ * 10/17/26 update time per step, and safe to step on the simulation thread.
+ */
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import org.joml.Matrix4f;
+
+public class Animator {
+	// ------------------ class variables ------------------------------
+	static final float FRAME_SECONDS = 1 / 60.0f;
+	static final int CHUNK = 4096; // slots per task; a multiple of 64
+
+	private static final float MAX_SPIN = (float) Math.PI; // angle units/s
+	private static final float MAX_DRIFT = 0.2f; // units/s per axis
+	private static final float BOUND = 1; // locations stay in -BOUND..BOUND
+
+	// -------- upload accounting since last report, from the renderers
+	private static boolean counting = false; // an Animator reports them
+	private static long uploadNanos = 0;
+	private static long uploadBytes = 0;
+
+	// ------------------ instance variables ----------------------------
+	private final TransformStore transforms;
+	private final ForkJoinPool pool;
+	private final int n;
+	private final float[] spin; // per slot
+	private final float[] drift; // x, y, z per slot
+	private final Chunk[] chunks;
+	private final Frame frame; // the tasks are reused, so a step allocates nothing
+
+	// -------- accounting since last report
+	private final AtomicLong steps = new AtomicLong(); // from the stepping thread
+	private final AtomicLong updateNanos = new AtomicLong();
+	private long drawNanos = 0; // scene redraw, uploads included; render thread
+
+	// ------------------ constructor ------------------------
+	/**
+	 * Random velocities, from seed, for the slots the store has now.
+	 */
+	Animator(TransformStore transforms, ForkJoinPool pool, long seed) {
+		this.transforms = transforms;
+		this.pool = pool;
+		n = transforms.size();
+		spin = new float[n];
+		drift = new float[3 * n];
+		SplittableRandom rng = new SplittableRandom(seed);
+		for (int i = 0; i < n; i++) {
+			spin[i] = (float) rng.nextDouble(-MAX_SPIN, MAX_SPIN);
+			for (int k = 0; k < 3; k++)
+				drift[3 * i + k] = (float) rng.nextDouble(-MAX_DRIFT, MAX_DRIFT);
+		}
+		chunks = new Chunk[(n + CHUNK - 1) / CHUNK];
+		for (int c = 0; c < chunks.length; c++)
+			chunks[c] = new Chunk(this, c * CHUNK, Math.min(n, (c + 1) * CHUNK));
+		frame = new Frame(chunks);
+		counting = true;
+		System.err.println("Animator: " + n + " moving shapes on " + pool.getParallelism() + " threads");
+	}
+
+	// ------------------------ step -----------------------------
+	/**
+	 * Advance every shape one frame and recompute its model matrix.
+	 */
+	void step() {
+		long start = System.nanoTime();
+		frame.reinitialize();
+		pool.invoke(frame);
+		int updated = 0;
+		for (Chunk c : chunks)
+			updated += c.updated;
+		transforms.countUpdated(updated);
+		updateNanos.addAndGet(System.nanoTime() - start);
+		steps.incrementAndGet();
+	}
+
+	// ------------------------ countDraw -----------------------------
+	/**
+	 * The scene redraw that followed step took nanos.
+	 */
+	void countDraw(long nanos) {
+		drawNanos += nanos;
+	}
+
+	// ------------------------ countUpload -----------------------------
+	/**
+	 * A renderer sent bytes of model data to the GPU, starting at
+	 * startNanos.
+	 */
+	static void countUpload(long startNanos, long bytes) {
+		if (!counting)
+			return;
+		uploadNanos += System.nanoTime() - startNanos;
+		uploadBytes += bytes;
+	}
+
+	// ------------------------ report -----------------------------
+	/**
+	 * Log the per frame split of CPU update (per step), upload and draw time
+	 * over the last report interval and reset the counts. Render thread.
+	 */
+	public void report(int frames) {
+		float f = frames == 0 ? 1 : frames;
+		long s = steps.getAndSet(0);
+		long update = updateNanos.getAndSet(0);
+		P3.log(String.format(
+				"Animation per frame (ms): CPU update %7.3f (%d threads, %d steps)    upload %7.3f (%d bytes)    draw %7.3f",
+				s == 0 ? 0 : update / 1e6 / s, pool.getParallelism(), s, uploadNanos / f / 1e6,
+				(long) (uploadBytes / f), (drawNanos - uploadNanos) / f / 1e6));
+		drawNanos = 0;
+		uploadNanos = 0;
+		uploadBytes = 0;
+	}
+
+	// ++++++++++++++++++++ private methods +++++++++++++++++++++++++++++++
+	// ------------------------ integrate -----------------------------
+	/**
+	 * Move slots from..to one frame, then recompute their matrices; returns
+	 * how many were recomputed.
+	 */
+	private int integrate(int from, int to, Matrix4f m) {
+		TransformStore t = transforms;
+		float dt = FRAME_SECONDS;
+		for (int i = from; i < to; i++) {
+			float x = t.get(i, TransformStore.TX) + drift[3 * i] * dt;
+			float y = t.get(i, TransformStore.TY) + drift[3 * i + 1] * dt;
+			float z = t.get(i, TransformStore.TZ) + drift[3 * i + 2] * dt;
+			x = bounce(i, 0, x);
+			y = bounce(i, 1, y);
+			z = bounce(i, 2, z);
+			t.setLocation(i, x, y, z);
+			t.setRotate(i, t.get(i, TransformStore.ANGLE) + spin[i] * dt, t.get(i, TransformStore.AX),
+					t.get(i, TransformStore.AY), t.get(i, TransformStore.AZ));
+		}
+		return t.updateRange(from, to, m);
+	}
+
+	/**
+	 * Reflect coordinate k of slot i, and its drift, at the bounds.
+	 */
+	private float bounce(int i, int k, float v) {
+		if (v > BOUND || v < -BOUND) {
+			drift[3 * i + k] = -drift[3 * i + k];
+			v = v > BOUND ? 2 * BOUND - v : -2 * BOUND - v;
+		}
+		return v;
+	}
+
+	// ---------------- one chunk of slots ------------------------------
+	private static class Chunk extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final Animator animator;
+		private final int from, to;
+		private final Matrix4f scratch = new Matrix4f();
+		int updated;
+
+		Chunk(Animator animator, int from, int to) {
+			this.animator = animator;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			updated = animator.integrate(from, to, scratch);
+		}
+	}
+
+	// ---------------- all chunks, reused every frame ------------------------
+	private static class Frame extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final Chunk[] chunks;
+
+		Frame(Chunk[] chunks) {
+			this.chunks = chunks;
+		}
+
+		@Override
+		protected void compute() {
+			for (Chunk c : chunks)
+				c.reinitialize();
+			invokeAll(chunks);
+		}
+	}
+}
@@ -14,6 +14,11 @@
  *                performance improvement up to 50000 objs at about 4.3 fps
  *                on my laptop. This may not be a useful test.
  * 03/09/16 rdb - moved everything but constructor to Shape3D
+ * 10/17/26     - normal and color arrays are now static so that all Boxes
+ *                with the same face/vertex options share one mesh (di)
+ * 10/17/26     - with go, glDrawElements boxes are built from the 36 vertex
+ *                arrays by MeshOptimizer, so they keep real normals and the
+ *                face/vertex color and normal options
  */
 
 import static org.lwjgl.opengl.GL11.*;
@@ -56,7 +61,7 @@ public class Box extends Shape3D {
 			0.5f, };
 	// ------------
 	// Define normals to each vertex that are normal to the plane of face
-	private float[] faceNormals = { // 3-element homog coordinates;
+	private static float[] faceNormals = { // 3-element homog coordinates;
 									// 3 letter codes are cube corners
 
 			// right face 2 triangles: rbn, rbf, rtf and rbn, rtf, rtn
@@ -75,10 +80,10 @@ public class Box extends Shape3D {
 	// which is the same direction as the corner vertex position coords
 	// This does not produce unit normals, so cpu and shader code needs
 	// to normalize.
-	private float[] vertexNormals = positions;
+	private static float[] vertexNormals = positions;
 
 	// Now define vertex faceColors; includes alpha coordinate
-	private float faceColors[] = {
+	private static float faceColors[] = {
 			// right face: red
 			1f, 0f, 0f, 1f, 1f, 0f, 0f, 1f, 1f, 0f, 0f, 1f, 1f, 0f, 0f, 1f, 1f, 0f, 0f, 1f, 1f, 0f, 0f, 1f,
 			// top face: green
@@ -97,7 +102,7 @@ public class Box extends Shape3D {
 	// 1f, 0f, 0f 0f, 1f, 0f 0f, 0f, 1f 0f, 1f, 1f
 	// rbn = pink, rbf = magenta, rtn = paleblue, rtf = yellow
 	// 1f, 0.5f, 0.5f 1f, 0f, 1f 0.5f, 0.5f, 1f 0f, 1f, 1f
-	private float vertexColors[] = {
+	private static float vertexColors[] = {
 			// right face: rbn, rbf, rtf and rbn, rtf, rtn
 			1f, 0.5f, 0.5f, 1f, 1f, 0f, 1f, 1f, 1f, 1f, 0f, 1f, 1f, 0.5f, 0.5f, 1f, 1f, 1f, 0f, 1f, 0.5f, 0.5f, 1f, 1f,
 			// top face: ltn, rtn, rtf and ltn, rtf, ltf
@@ -155,12 +160,12 @@ public class Box extends Shape3D {
 		float[] normals = null;
 		float[] colors = null;
 
-		if (Shape3D.useElements) // using glDrawElements
+		if (Shape3D.useElements && !Shape3D.optimizeMeshes) // using glDrawElements
 		{
 			normals = vertices; // aren't unit normals! Need to normalized
 			colors = indexColors;
 			setData(nObjVertices, vertices, indexes, normals, colors, textureCoords);
-		} else // using glDrawArrays
+		} else // using glDrawArrays, or go: Shape3D will index it
 		{
 			normals = faceNormals;
 			if (!useFaceNormals)
@@ -0,0 +1,199 @@
+/**
+ * CommandBuffer.java - a CPU side stream of draw commands, recorded off the
+ *           GL thread and replayed on it (op).
+ *
+ * The stream is native memory of ints: an opcode followed by its
+ * arguments; a model matrix is 16 floats in place and a byte offset two
+ * ints. Recording only writes memory, so any thread may record a stream
+ * it owns; replay decodes it on the GL thread and makes the calls through
+ * GLState and ShaderProgram, so binds and uniforms the previous command
+ * left in place are still skipped. Within a stream, a bind that repeats
+ * the last one is not recorded at all.
+ *
+ * The stream keeps its memory between frames; reset empties it.
+ *
+ * 10/17/26 created for the op submission option.
+ */
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL42.*;
+
+import java.nio.*;
+
+public class CommandBuffer {
+	// ------------------ class variables ------------------------------
+	// opcode, then its arguments
+	static final int BIND_VERTEX_ARRAY = 1; // vao
+	static final int BIND_ELEMENT_BUFFER = 2; // ebo
+	static final int MODEL_MATRIX = 3; // location, 16 floats
+	static final int RESTART_INDEX = 4; // index type
+	static final int DRAW_ARRAYS = 5; // mode, first, count, baseInstance
+	static final int DRAW_ELEMENTS = 6; // mode, count, type, offset lo, hi, baseInstance
+
+	private static final int INITIAL_INTS = 4096;
+
+	// ------------------ instance variables ----------------------------
+	private NativeArena memory;
+	private ByteBuffer bytes; // from memory
+	private IntBuffer ints; // views of bytes
+	private FloatBuffer floats; // for matrices
+	private int size = 0; // ints recorded
+	private int commands = 0; // draws recorded
+
+	// what the stream last bound, to skip repeats
+	private int vertexArray = -1;
+	private int elementBuffer = -1;
+	private int restartType = -1;
+
+	// ------------------ constructor ------------------------
+	CommandBuffer(String name) {
+		memory = NativeArena.pool(name);
+		bytes = memory.alloc(4 * INITIAL_INTS);
+		views();
+	}
+
+	// ------------------------ close -----------------------------
+	/**
+	 * Free the stream; it must not be used afterwards.
+	 */
+	public void close() {
+		memory.close();
+	}
+
+	// ------------------------ reset -----------------------------
+	/**
+	 * Empty the stream for the next frame.
+	 */
+	void reset() {
+		size = 0;
+		commands = 0;
+		vertexArray = -1;
+		elementBuffer = -1;
+		restartType = -1;
+	}
+
+	int size() {
+		return size;
+	}
+
+	int commands() {
+		return commands;
+	}
+
+	// ------------------------ record -----------------------------
+	void bindVertexArray(int vao) {
+		if (vao == vertexArray)
+			return;
+		reserve(2);
+		ints.put(size++, BIND_VERTEX_ARRAY).put(size++, vao);
+		vertexArray = vao;
+		elementBuffer = -1; // the element buffer is vertex array state
+	}
+
+	void bindElementBuffer(int ebo) {
+		if (ebo == elementBuffer)
+			return;
+		reserve(2);
+		ints.put(size++, BIND_ELEMENT_BUFFER).put(size++, ebo);
+		elementBuffer = ebo;
+	}
+
+	/**
+	 * The matrix of a TransformStore slot, for uniform location; the slot
+	 * must already be up to date (TransformStore.copyMatrix).
+	 */
+	void modelMatrix(int location, TransformStore transforms, int slot) {
+		reserve(2 + TransformStore.MATRIX_FLOATS);
+		ints.put(size++, MODEL_MATRIX).put(size++, location);
+		transforms.copyMatrix(slot, size, floats);
+		size += TransformStore.MATRIX_FLOATS;
+	}
+
+	void restartIndex(int type) {
+		if (type == restartType)
+			return;
+		reserve(2);
+		ints.put(size++, RESTART_INDEX).put(size++, type);
+		restartType = type;
+	}
+
+	void drawArrays(int mode, int first, int count, int baseInstance) {
+		reserve(5);
+		ints.put(size++, DRAW_ARRAYS).put(size++, mode).put(size++, first).put(size++, count).put(size++,
+				baseInstance);
+		commands++;
+	}
+
+	void drawElements(int mode, int count, int type, long offset, int baseInstance) {
+		reserve(7);
+		ints.put(size++, DRAW_ELEMENTS).put(size++, mode).put(size++, count).put(size++, type)
+				.put(size++, (int) offset).put(size++, (int) (offset >>> 32)).put(size++, baseInstance);
+		commands++;
+	}
+
+	// ------------------------ replay -----------------------------
+	/**
+	 * Make the recorded calls, in order. GL thread only.
+	 */
+	void replay() {
+		ShaderProgram program = LWJGL.program;
+		IntBuffer s = ints;
+		int at = 0;
+		while (at < size) {
+			switch (s.get(at)) {
+			case BIND_VERTEX_ARRAY:
+				GLState.bindVertexArray(s.get(at + 1));
+				at += 2;
+				break;
+			case BIND_ELEMENT_BUFFER:
+				GLState.bindBuffer(GL_ELEMENT_ARRAY_BUFFER, s.get(at + 1));
+				at += 2;
+				break;
+			case MODEL_MATRIX:
+				floats.limit(at + 2 + TransformStore.MATRIX_FLOATS).position(at + 2);
+				program.setMatrix4f(s.get(at + 1), floats);
+				at += 2 + TransformStore.MATRIX_FLOATS;
+				break;
+			case RESTART_INDEX:
+				Shape3D.setRestartIndex(s.get(at + 1));
+				at += 2;
+				break;
+			case DRAW_ARRAYS:
+				if (s.get(at + 4) >= 0)
+					glDrawArraysInstancedBaseInstance(s.get(at + 1), s.get(at + 2), s.get(at + 3), 1, s.get(at + 4));
+				else
+					glDrawArrays(s.get(at + 1), s.get(at + 2), s.get(at + 3));
+				at += 5;
+				break;
+			case DRAW_ELEMENTS:
+				long offset = (s.get(at + 4) & 0xffffffffL) | ((long) s.get(at + 5) << 32);
+				if (s.get(at + 6) >= 0)
+					glDrawElementsInstancedBaseInstance(s.get(at + 1), s.get(at + 2), s.get(at + 3), offset, 1,
+							s.get(at + 6));
+				else
+					glDrawElements(s.get(at + 1), s.get(at + 2), s.get(at + 3), offset);
+				at += 7;
+				break;
+			default:
+				P3.logErr("CommandBuffer: bad opcode " + s.get(at) + " at " + at);
+				return;
+			}
+		}
+	}
+
+	// ++++++++++++++++++++ private methods +++++++++++++++++++++++++++++++
+	/**
+	 * Room for n more ints; doubles the stream when full.
+	 */
+	private void reserve(int n) {
+		if (size + n <= ints.capacity())
+			return;
+		bytes = memory.realloc(bytes, 4 * Math.max(2 * ints.capacity(), size + n));
+		views();
+	}
+
+	private void views() {
+		ints = bytes.asIntBuffer(); // native order, as alloc gives it
+		floats = bytes.asFloatBuffer();
+	}
+}
@@ -0,0 +1,180 @@
+/**
+ * CommandRecorder.java - records a Scene's per-shape draws on worker
+ *           threads and replays them on the GL thread (op).
+ *
+ * The draw order is cut into one contiguous partition per worker. Each
+ * worker decides visibility and records its shapes (Shape3D.record) into
+ * its own CommandBuffer; the GL thread then replays the streams in
+ * partition order, so the calls are the ones the plain loop makes, in the
+ * same order. With one worker the recording runs on the GL thread, the
+ * baseline for the scaling runs.
+ *
+ * The number of workers is the RECORDWORKERS environment variable, or the
+ * number of processors. Each report logs recording and replay time per
+ * frame, so runs with 1, 2, 4, ... workers show how the CPU frame time
+ * scales.
+ *
+ * 10/17/26 created for the op submission option.
+ */
+import java.util.*;
+import java.util.concurrent.*;
+
+public class CommandRecorder {
+	// ------------------ class variables ------------------------------
+	static final String WORKERS_ENV = "RECORDWORKERS";
+
+	// -------- accounting since last report, over all recorders
+	private static int lastWorkers = 0;
+	private static long recordNanos = 0;
+	private static long replayNanos = 0;
+	private static long draws = 0;
+	private static long ints = 0;
+
+	// ------------------ instance variables ----------------------------
+	private final int workers;
+	private final ForkJoinPool pool; // null with one worker
+	private final CommandBuffer[] streams;
+	private final Partition[] partitions;
+	private final Frame frame; // the tasks are reused, so a frame allocates nothing
+
+	// the frame being recorded
+	private Scene scene;
+	private ArrayList<Shape3D> order;
+
+	// ------------------ constructor ------------------------
+	CommandRecorder() {
+		workers = workersFromEnv();
+		pool = workers > 1 ? new ForkJoinPool(workers) : null;
+		streams = new CommandBuffer[workers];
+		partitions = new Partition[workers];
+		for (int w = 0; w < workers; w++) {
+			streams[w] = new CommandBuffer("CommandBuffer");
+			partitions[w] = new Partition(this, w);
+		}
+		frame = new Frame(partitions);
+		System.err.println("Command recording: " + workers + " workers");
+	}
+
+	// ------------------------ close -----------------------------
+	/**
+	 * Free the streams and stop the workers.
+	 */
+	public void close() {
+		for (CommandBuffer s : streams)
+			s.close();
+		if (pool != null)
+			pool.shutdown();
+	}
+
+	// ------------------------ submit -----------------------------
+	/**
+	 * Record the visible shapes of order on the workers, then replay them.
+	 */
+	void submit(Scene scene, ArrayList<Shape3D> order) {
+		long start = System.nanoTime();
+		this.scene = scene;
+		this.order = order;
+		if (pool == null)
+			record(0);
+		else {
+			frame.reinitialize();
+			pool.invoke(frame);
+		}
+		long recorded = System.nanoTime();
+		for (CommandBuffer s : streams) {
+			s.replay();
+			draws += s.commands();
+			ints += s.size();
+		}
+		Shape3D.endRedraws();
+		long end = System.nanoTime();
+		lastWorkers = workers;
+		recordNanos += recorded - start;
+		replayNanos += end - recorded;
+		this.scene = null;
+		this.order = null;
+	}
+
+	// ------------------------ report -----------------------------
+	/**
+	 * Log recording and replay time per frame over the last report interval
+	 * and reset the counts.
+	 */
+	public static void report(int frames) {
+		float n = frames == 0 ? 1 : frames;
+		P3.log(String.format(
+				"Command streams per frame (ms): %d workers    record %7.3f    replay %7.3f    draws %8.1f    bytes %10.1f",
+				lastWorkers, recordNanos / n / 1e6, replayNanos / n / 1e6, draws / n, 4 * ints / n));
+		recordNanos = 0;
+		replayNanos = 0;
+		draws = 0;
+		ints = 0;
+	}
+
+	// ++++++++++++++++++++ private methods +++++++++++++++++++++++++++++++
+	// ------------------------ record -----------------------------
+	/**
+	 * Record worker w's partition of the draw order into its stream.
+	 */
+	private void record(int w) {
+		CommandBuffer stream = streams[w];
+		stream.reset();
+		int n = order.size();
+		int from = (int) ((long) n * w / workers);
+		int to = (int) ((long) n * (w + 1) / workers);
+		for (int i = from; i < to; i++) {
+			Shape3D shape = order.get(i);
+			if (scene.isVisible(shape))
+				shape.record(stream);
+		}
+	}
+
+	private static int workersFromEnv() {
+		int n = Runtime.getRuntime().availableProcessors();
+		String env = System.getenv(WORKERS_ENV);
+		if (env != null) {
+			try {
+				n = Integer.parseInt(env);
+			} catch (NumberFormatException e) {
+				System.err.println("***** " + WORKERS_ENV + "=" + env + " is not a number; using " + n);
+			}
+		}
+		return Math.max(1, n);
+	}
+
+	// ---------------- one worker's partition ------------------------------
+	private static class Partition extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final CommandRecorder recorder;
+		private final int worker;
+
+		Partition(CommandRecorder recorder, int worker) {
+			this.recorder = recorder;
+			this.worker = worker;
+		}
+
+		@Override
+		protected void compute() {
+			recorder.record(worker);
+		}
+	}
+
+	// ---------------- all partitions, reused every frame ------------------------
+	private static class Frame extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final Partition[] partitions;
+
+		Frame(Partition[] partitions) {
+			this.partitions = partitions;
+		}
+
+		@Override
+		protected void compute() {
+			for (Partition p : partitions)
+				p.reinitialize();
+			invokeAll(partitions);
+		}
+	}
+}
@@ -0,0 +1,80 @@
+
+/**
+ * DrawList.java - a Scene's shapes compiled into a draw order sorted by GL
+ *           state and submitted with only the binds that change it (os).
+ *
+ * Entries are sorted by (program, VAO, index buffer, color buffer) so shapes
+ * that share state are drawn back to back. Every bind goes through GLState,
+ * which issues it only when it changes what is bound and counts the issued
+ * and skipped calls; nothing is unbound between draws. The color buffer is
+ * read through the VAO's vColor attribute and needs no bind of its own; it
+ * is in the key to keep shapes reading the same buffer adjacent.
+ *
+ * The list is compiled once and reused until Scene.addShape drops it or
+ * Shape3D.resourceGeneration says some shape's GL objects changed.
+ *
+ * 10/17/26 created for the os draw option.
+ * 10/17/26 own bind shadow and counts dropped; GLState has both.
+ */
+import static org.lwjgl.opengl.GL15.*;
+
+import java.util.*;
+
+public class DrawList {
+	// ------------------ instance variables ----------------------------
+	private int generation; // Shape3D.resourceGeneration when compiled
+	private Shape3D[] order;
+
+	// ------------------ constructor ------------------------
+	/**
+	 * Compile the draw list for the shapes.
+	 *
+	 * @param shapes
+	 *            ArrayList<Shape3D> all shapes in the scene
+	 */
+	public DrawList(ArrayList<Shape3D> shapes) {
+		generation = Shape3D.resourceGeneration;
+		ArrayList<Shape3D> sorted = new ArrayList<Shape3D>(shapes);
+		Collections.sort(sorted, new Comparator<Shape3D>() {
+			public int compare(Shape3D a, Shape3D b) {
+				int c = Integer.compare(a.getShaderProgram(), b.getShaderProgram());
+				if (c == 0)
+					c = Integer.compare(a.getVaoId(), b.getVaoId());
+				if (c == 0)
+					c = Integer.compare(a.getIndexVBO(), b.getIndexVBO());
+				if (c == 0)
+					c = Integer.compare(a.getColorVBO(), b.getColorVBO());
+				return c;
+			}
+		});
+		order = sorted.toArray(new Shape3D[sorted.size()]);
+	}
+
+	// ------------------------ isCurrent -----------------------------
+	/**
+	 * False once a shape's GL resources changed since the list was compiled.
+	 */
+	public boolean isCurrent() {
+		return generation == Shape3D.resourceGeneration;
+	}
+
+	// ------------------------ submit -----------------------------
+	/**
+	 * Draw every shape the scene did not cull in list order; GLState drops
+	 * the binds that repeat the previous shape's.
+	 */
+	public void submit(Scene scene) {
+		boolean elements = Shape3D.drawsFromIndexBuffer();
+		for (Shape3D shape : order) {
+			if (!scene.isVisible(shape))
+				continue;
+			GLState.useProgram(shape.getShaderProgram());
+			GLState.bindVertexArray(shape.getVaoId());
+			if (elements)
+				GLState.bindBuffer(GL_ELEMENT_ARRAY_BUFFER, shape.getIndexVBO());
+			shape.drawGeometry(shape.uploadModel());
+		}
+		// leave no VAO bound for code that loads buffers outside a frame
+		GLState.bindVertexArray(0);
+	}
+}
@@ -0,0 +1,148 @@
+/**
+ * FrameTimer.java - per-frame CPU and GPU times with percentiles over each
+ *           report interval.
+ *
+ * Four histograms (LatencyHistogram):
+ *   frame            nanoTime from one frame's start to the next: the whole
+ *                    loop, swap and event polling included
+ *   CPU submit       nanoTime from the start of P3.redraw to after glFlush
+ *   GPU              GL_TIME_ELAPSED around the same calls
+ *   submit to GPU    GL_TIMESTAMP when the frame's commands complete on the
+ *   done             GPU, minus the GPU clock (glGetInteger64 GL_TIMESTAMP)
+ *                    when the CPU started submitting them: the frame's
+ *                    latency through the whole pipeline
+ *
+ * The queries are double-buffered: frame k uses query set k % 2 and reads
+ * the set of frame k - 2 just before reusing it. A result not yet
+ * available then is dropped and counted, rather than waited for, so
+ * timing never stalls the pipeline. Timer queries need OpenGL 3.3; without
+ * them only the CPU time is kept.
+ *
+ * 10/17/26 created for the frame time percentiles.
+ */
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL32.*;
+import static org.lwjgl.opengl.GL33.*;
+
+import org.lwjgl.opengl.GL;
+
+public class FrameTimer {
+	// ------------------ class variables ------------------------------
+	private static final int SETS = 2;
+
+	// ------------------ instance variables ----------------------------
+	private final LatencyHistogram frame = new LatencyHistogram("frame");
+	private final LatencyHistogram cpu = new LatencyHistogram("CPU submit");
+	private final LatencyHistogram gpu = new LatencyHistogram("GPU");
+	private final LatencyHistogram total = new LatencyHistogram("submit to GPU done");
+
+	private final boolean timerQueries;
+	private final int[] elapsedQuery = new int[SETS];
+	private final int[] doneQuery = new int[SETS]; // GL_TIMESTAMP
+	private final long[] submitGpuTime = new long[SETS]; // GPU clock at CPU start
+	private final boolean[] pending = new boolean[SETS];
+	private int set = 0;
+	private long dropped = 0; // results not ready when their set was reused
+	private long lastStart = -1; // nanoTime
+
+	// ------------------ constructor ------------------------
+	/**
+	 * Create the queries if timer queries are supported. GL thread only.
+	 */
+	FrameTimer() {
+		timerQueries = GL.getCapabilities().OpenGL33 || GL.getCapabilities().GL_ARB_timer_query;
+		if (!timerQueries) {
+			System.err.println("***** no timer queries (OpenGL 3.3); GPU times not measured");
+			return;
+		}
+		for (int s = 0; s < SETS; s++) {
+			elapsedQuery[s] = glGenQueries();
+			doneQuery[s] = glGenQueries();
+		}
+	}
+
+	// ------------------------ begin -----------------------------
+	/**
+	 * The frame's GL calls start now, at startNanos (System.nanoTime).
+	 */
+	void begin(long startNanos) {
+		if (lastStart >= 0)
+			frame.record(startNanos - lastStart);
+		lastStart = startNanos;
+		if (!timerQueries)
+			return;
+		if (pending[set])
+			collect(set);
+		submitGpuTime[set] = glGetInteger64(GL_TIMESTAMP);
+		glBeginQuery(GL_TIME_ELAPSED, elapsedQuery[set]);
+	}
+
+	// ------------------------ end -----------------------------
+	/**
+	 * The frame's GL calls are submitted; they started at startNanos and
+	 * ended at endNanos (System.nanoTime).
+	 */
+	void end(long startNanos, long endNanos) {
+		cpu.record(endNanos - startNanos);
+		if (!timerQueries)
+			return;
+		glEndQuery(GL_TIME_ELAPSED);
+		glQueryCounter(doneQuery[set], GL_TIMESTAMP);
+		pending[set] = true;
+		set = (set + 1) % SETS;
+	}
+
+	// ------------------------ report -----------------------------
+	/**
+	 * Log the percentiles of the interval and reset the histograms.
+	 */
+	void report() {
+		P3.log("    " + frame.summary());
+		P3.log("    " + cpu.summary());
+		if (timerQueries) {
+			P3.log("    " + gpu.summary());
+			P3.log("    " + total.summary() + (dropped > 0 ? "  dropped " + dropped : ""));
+		}
+		reset();
+	}
+
+	// ------------------------ reset -----------------------------
+	/**
+	 * Forget the samples so far, e.g. the first frame's.
+	 */
+	void reset() {
+		frame.reset();
+		cpu.reset();
+		gpu.reset();
+		total.reset();
+		dropped = 0;
+	}
+
+	// ------------------------ delete -----------------------------
+	/**
+	 * Free the queries. GL thread only.
+	 */
+	void delete() {
+		if (!timerQueries)
+			return;
+		for (int s = 0; s < SETS; s++) {
+			glDeleteQueries(elapsedQuery[s]);
+			glDeleteQueries(doneQuery[s]);
+		}
+	}
+
+	// ++++++++++++++++++++ private methods +++++++++++++++++++++++++++++++
+	/**
+	 * Record set s's results if the GPU has them; otherwise drop them.
+	 */
+	private void collect(int s) {
+		pending[s] = false;
+		if (glGetQueryObjecti(doneQuery[s], GL_QUERY_RESULT_AVAILABLE) == 0) {
+			dropped++; // its queries are reissued below; the old results are lost
+			return;
+		}
+		// the timestamp is written after the elapsed query ends, so both are ready
+		gpu.record(glGetQueryObjectui64(elapsedQuery[s], GL_QUERY_RESULT));
+		total.record(glGetQueryObjectui64(doneQuery[s], GL_QUERY_RESULT) - submitGpuTime[s]);
+	}
+}
@@ -0,0 +1,210 @@
+
+/**
+ * GLState.java - a shadow of the GL binding state that forwards a bind only
+ *           when it changes what is bound.
+ *
+ * Tracked: the current program, the vertex array, the GL_ARRAY_BUFFER
+ * binding and, since they are vertex array state, each vertex array's
+ * GL_ELEMENT_ARRAY_BUFFER binding and enabled attributes (locations below
+ * 64). Other buffer targets are passed through. The shadow starts as the
+ * state of a new context. It is only right while every bind in the program
+ * goes through this class; deletes must too, since deleting a bound object
+ * unbinds it.
+ *
+ * With the GLSTATECHECK environment variable set, every call (forwarded or
+ * skipped) is followed by a glGetInteger cross-check of what it tracks; a
+ * mismatch is logged as an error and the shadow is corrected.
+ *
+ * 10/17/26 created to skip redundant bind and unbind calls.
+ */
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL20.*;
+import static org.lwjgl.opengl.GL30.*;
+
+import java.util.*;
+
+public class GLState {
+	// ------------------ class variables ------------------------------
+	static boolean checking = false; // cross-check with glGetInteger
+
+	private static int program = 0;
+	private static int vertexArray = 0;
+	private static int arrayBuffer = 0;
+	// per vertex array, indexed by its id; grown as ids appear
+	private static int[] elementBuffer = new int[64];
+	private static long[] enabledAttribs = new long[64];
+
+	// -------- accounting since last report
+	private static long issued = 0;
+	private static long skipped = 0;
+	private static long mismatches = 0;
+
+	// ------------------------ useProgram -----------------------------
+	static void useProgram(int id) {
+		if (id != program) {
+			glUseProgram(id);
+			program = id;
+			issued++;
+		} else
+			skipped++;
+		if (checking)
+			program = check("program", program, glGetInteger(GL_CURRENT_PROGRAM));
+	}
+
+	// ------------------------ bindVertexArray -----------------------------
+	static void bindVertexArray(int id) {
+		if (id != vertexArray) {
+			glBindVertexArray(id);
+			vertexArray = id;
+			grow(id);
+			issued++;
+		} else
+			skipped++;
+		if (checking) {
+			vertexArray = check("vertex array", vertexArray, glGetInteger(GL_VERTEX_ARRAY_BINDING));
+			grow(vertexArray);
+		}
+	}
+
+	// ------------------------ bindBuffer -----------------------------
+	static void bindBuffer(int target, int id) {
+		if (target == GL_ARRAY_BUFFER) {
+			if (id != arrayBuffer) {
+				glBindBuffer(target, id);
+				arrayBuffer = id;
+				issued++;
+			} else
+				skipped++;
+			if (checking)
+				arrayBuffer = check("array buffer", arrayBuffer, glGetInteger(GL_ARRAY_BUFFER_BINDING));
+		} else if (target == GL_ELEMENT_ARRAY_BUFFER) {
+			if (id != elementBuffer[vertexArray]) {
+				glBindBuffer(target, id);
+				elementBuffer[vertexArray] = id;
+				issued++;
+			} else
+				skipped++;
+			if (checking)
+				elementBuffer[vertexArray] = check("element buffer of vertex array " + vertexArray,
+						elementBuffer[vertexArray], glGetInteger(GL_ELEMENT_ARRAY_BUFFER_BINDING));
+		} else
+			glBindBuffer(target, id);
+	}
+
+	// ------------------------ enable/disableVertexAttribArray ----------------
+	static void enableVertexAttribArray(int location) {
+		setAttrib(location, true);
+	}
+
+	static void disableVertexAttribArray(int location) {
+		setAttrib(location, false);
+	}
+
+	// ------------------------ deleteBuffer -----------------------------
+	/**
+	 * glDeleteBuffers, which unbinds the buffer where it is bound. A vertex
+	 * array that is not bound keeps the deleted buffer; its element binding
+	 * becomes unknown so a buffer that reuses the id is bound again.
+	 */
+	static void deleteBuffer(int id) {
+		glDeleteBuffers(id);
+		if (arrayBuffer == id)
+			arrayBuffer = 0;
+		for (int vao = 0; vao < elementBuffer.length; vao++)
+			if (elementBuffer[vao] == id)
+				elementBuffer[vao] = vao == vertexArray ? 0 : -1;
+	}
+
+	// ------------------------ deleteVertexArray -----------------------------
+	/**
+	 * glDeleteVertexArrays; a vertex array that reuses the id starts with
+	 * the state of a new one.
+	 */
+	static void deleteVertexArray(int id) {
+		glDeleteVertexArrays(id);
+		if (vertexArray == id)
+			vertexArray = 0;
+		created(id);
+	}
+
+	// ------------------------ created -----------------------------
+	/**
+	 * A new vertex array: no element buffer, no enabled attributes.
+	 */
+	static void created(int vao) {
+		grow(vao);
+		elementBuffer[vao] = 0;
+		enabledAttribs[vao] = 0;
+	}
+
+	// ------------------------ report -----------------------------
+	/**
+	 * Log issued vs skipped binds per frame over the last report interval
+	 * and reset the counts.
+	 */
+	public static void report(int frames) {
+		float n = frames == 0 ? 1 : frames;
+		String check = checking ? String.format("    check mismatches %d", mismatches) : "";
+		P3.log(String.format("GL state calls per frame: issued %10.1f    skipped %10.1f%s", issued / n, skipped / n,
+				check));
+		issued = 0;
+		skipped = 0;
+		mismatches = 0;
+	}
+
+	// ++++++++++++++++++++ private methods +++++++++++++++++++++++++++++++
+	private static void setAttrib(int location, boolean enable) {
+		if (location < 0 || location >= 64) {
+			if (location >= 0) {
+				if (enable)
+					glEnableVertexAttribArray(location);
+				else
+					glDisableVertexAttribArray(location);
+			}
+			return;
+		}
+		long bit = 1L << location;
+		boolean on = (enabledAttribs[vertexArray] & bit) != 0;
+		if (on != enable) {
+			if (enable) {
+				glEnableVertexAttribArray(location);
+				enabledAttribs[vertexArray] |= bit;
+			} else {
+				glDisableVertexAttribArray(location);
+				enabledAttribs[vertexArray] &= ~bit;
+			}
+			issued++;
+		} else
+			skipped++;
+		if (checking) {
+			boolean actual = glGetVertexAttribi(location, GL_VERTEX_ATTRIB_ARRAY_ENABLED) != 0;
+			if (check("attribute " + location + " of vertex array " + vertexArray, enable ? 1 : 0,
+					actual ? 1 : 0) != (enable ? 1 : 0)) {
+				if (actual)
+					enabledAttribs[vertexArray] |= bit;
+				else
+					enabledAttribs[vertexArray] &= ~bit;
+			}
+		}
+	}
+
+	/**
+	 * The actual value, logging it if the shadow differs.
+	 */
+	private static int check(String what, int shadow, int actual) {
+		if (shadow != actual) {
+			mismatches++;
+			P3.logErr("GL state: " + what + " is " + actual + ", shadow had " + shadow);
+		}
+		return actual;
+	}
+
+	private static void grow(int vao) {
+		if (vao < elementBuffer.length)
+			return;
+		int n = Math.max(vao + 1, 2 * elementBuffer.length);
+		elementBuffer = Arrays.copyOf(elementBuffer, n); // new ids: 0, as new
+		enabledAttribs = Arrays.copyOf(enabledAttribs, n);
+	}
+}
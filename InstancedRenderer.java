@@ -0,0 +1,232 @@
+
+/**
+ * InstancedRenderer.java - draws every shape of a Scene that shares a mesh
+ *           with one glDrawArraysInstanced or glDrawElementsInstanced call.
+ *
+ * Shapes are grouped by the mesh arrays they passed to Shape3D.setData. Each
+ * group gets one VAO holding the mesh attributes and an instance buffer that
+ * holds one model matrix per shape. glVertexAttribDivisor makes the
+ * instance attribute advance once per instance instead of per vertex,
+ * so a frame costs one bind and one draw per group, not per shape.
+ *
+ * 10/17/26 created for the di draw option.
+ * 10/17/26 redraw allocates nothing: indexed loop over the groups.
+ * 10/17/26 instance uploads counted for the wm breakdown.
+ * 10/17/26 per-instance color dropped; the shader colors from vColor.
+ */
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL20.*;
+import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL31.*;
+import static org.lwjgl.opengl.GL33.*;
+
+import java.nio.*;
+import java.util.*;
+
+
+public class InstancedRenderer {
+	// ------------------ class variables ------------------------------
+	static final int INSTANCE_FLOATS = 16; // mat4 model
+	static final int INSTANCE_STRIDE = INSTANCE_FLOATS * 4; // bytes
+
+	// ------------------ instance variables ----------------------------
+	private ArrayList<Group> groups = new ArrayList<Group>();
+	private NativeArena memory = NativeArena.pool("InstancedRenderer"); // freed by close
+	private NativeArena temp = NativeArena.scoped("InstancedRenderer.build");
+
+	// attribute locations; iModel is a mat4 so it uses 4 locations
+	private int vPosition = -1;
+	private int vNormal = -1;
+	private int vColor = -1;
+	private int iModel = -1;
+
+	// ---------------- one draw call worth of shapes --------------------
+	private static class Group {
+		Shape3D mesh; // first shape; supplies the mesh arrays
+		ArrayList<Shape3D> shapes = new ArrayList<Shape3D>();
+		int vaoId = -1;
+		int posVBO = -1;
+		int normalVBO = -1;
+		int colorVBO = -1;
+		int indexVBO = -1;
+		int instanceVBO = -1;
+		FloatBuffer instanceBuf = null; // from memory
+	}
+
+	// ------------------ constructor ------------------------
+	/**
+	 * Group the shapes by mesh and build the GL buffers for each group.
+	 *
+	 * @param shapes
+	 *            ArrayList<Shape3D> all shapes in the scene
+	 */
+	public InstancedRenderer(ArrayList<Shape3D> shapes) {
+		UtilsLWJGL.glError("--->InstancedRenderer"); // clean out old errors
+		int pgm = LWJGL.shaderProgram;
+		ShaderProgram program = ShaderProgram.of(pgm);
+		vPosition = program.attribute("vPosition");
+		vNormal = program.attribute("vNormal");
+		vColor = program.attribute("vColor");
+		iModel = program.attribute("iModel");
+		if (iModel == -1)
+			System.err.println("***** iModel attribute is undefined!");
+
+		LinkedHashMap<List<Object>, Group> byMesh = new LinkedHashMap<List<Object>, Group>();
+		for (Shape3D shape : shapes) {
+			List<Object> key = shape.meshKey();
+			Group g = byMesh.get(key);
+			if (g == null) {
+				g = new Group();
+				g.mesh = shape;
+				byMesh.put(key, g);
+			}
+			g.shapes.add(shape);
+		}
+		groups.addAll(byMesh.values());
+		for (Group g : groups)
+			buildGroup(g);
+		temp.close();
+
+		setInstanceFlag(pgm);
+
+		System.err.println("Instanced draw: " + groups.size() + " mesh groups for " + shapes.size() + " shapes");
+		UtilsLWJGL.glError("<---InstancedRenderer"); // check for glerrors
+	}
+
+	// ------------------------ close -----------------------------
+	/**
+	 * Free the instance buffers; the renderer must not be used afterwards.
+	 */
+	public void close() {
+		memory.close();
+	}
+
+	// ------------------------ redraw -----------------------------
+	/**
+	 * Refresh instance data for shapes whose model changed, then issue one
+	 * instanced draw per mesh group.
+	 */
+	public void redraw() {
+		for (int k = 0; k < groups.size(); k++) {
+			Group g = groups.get(k);
+			long start = System.nanoTime();
+			boolean dirty = false;
+			for (int i = 0; i < g.shapes.size(); i++) {
+				Shape3D shape = g.shapes.get(i);
+				if (shape.modelNeedsUpdate()) {
+					shape.getModelMatrix(i * INSTANCE_FLOATS, g.instanceBuf);
+					dirty = true;
+				}
+			}
+			GLState.bindVertexArray(g.vaoId);
+			if (dirty) {
+				GLState.bindBuffer(GL_ARRAY_BUFFER, g.instanceVBO);
+				glBufferSubData(GL_ARRAY_BUFFER, 0, g.instanceBuf);
+				GLState.bindBuffer(GL_ARRAY_BUFFER, 0);
+				Animator.countUpload(start, g.instanceBuf.remaining() * 4L);
+			}
+			int count = g.shapes.size();
+			if (g.mesh.meshIndexes != null)
+				glDrawElementsInstanced(GL_TRIANGLES, g.mesh.meshIndexCount(), g.mesh.meshIndexType, 0, count);
+			else
+				glDrawArraysInstanced(GL_TRIANGLES, 0, g.mesh.meshVertices, count);
+		}
+		GLState.bindVertexArray(0);
+	}
+
+	// ++++++++++++++++++++ private methods +++++++++++++++++++++++++++++++
+	// ---------------------- buildGroup -----------------------------------
+	/**
+	 * Create the VAO for a group: mesh attributes from the shared arrays,
+	 * instance attribute (model matrix) from its own buffer with a
+	 * divisor of 1.
+	 */
+	private void buildGroup(Group g) {
+		Shape3D mesh = g.mesh;
+		int nVerts = mesh.meshVertices;
+
+		g.vaoId = UtilsLWJGL.genVertexArray();
+		GLState.bindVertexArray(g.vaoId);
+
+		g.posVBO = loadMeshArray(mesh.meshPositions, nVerts, vPosition);
+		g.normalVBO = loadMeshArray(mesh.meshNormals, nVerts, vNormal);
+		g.colorVBO = loadMeshArray(mesh.meshColors, nVerts, vColor);
+
+		if (mesh.meshIndexes != null) {
+			ByteBuffer indexBuf = temp.alloc(mesh.meshIndexes.length);
+			indexBuf.put(mesh.meshIndexes).flip();
+			g.indexVBO = UtilsLWJGL.genBuffer();
+			// element buffer binding is VAO state; leave it bound
+			GLState.bindBuffer(GL_ELEMENT_ARRAY_BUFFER, g.indexVBO);
+			glBufferData(GL_ELEMENT_ARRAY_BUFFER, indexBuf, GL_STATIC_DRAW);
+			temp.free(indexBuf);
+		}
+
+		// ---- per instance: 16 floats of model matrix
+		int count = g.shapes.size();
+		g.instanceBuf = memory.allocFloat(count * INSTANCE_FLOATS);
+		for (int i = 0; i < count; i++)
+			packInstance(g.shapes.get(i), g.instanceBuf, i);
+		g.instanceVBO = UtilsLWJGL.genBuffer();
+		GLState.bindBuffer(GL_ARRAY_BUFFER, g.instanceVBO);
+		glBufferData(GL_ARRAY_BUFFER, g.instanceBuf, GL_DYNAMIC_DRAW);
+		describeModelAttrib(iModel, INSTANCE_STRIDE);
+		GLState.bindBuffer(GL_ARRAY_BUFFER, 0);
+		GLState.bindVertexArray(0);
+		UtilsLWJGL.glError("<---InstancedRenderer.buildGroup"); // check for glerrors
+	}
+
+	// ++++++++++++++++++ package methods shared with other renderers +++++++++
+	// ---------------------- setInstanceFlag -----------------------------
+	/**
+	 * Tell the vertex shader to take the model matrix from iModel.
+	 */
+	static void setInstanceFlag(int pgm) {
+		ShaderProgram program = ShaderProgram.of(pgm);
+		program.set1f(program.uniform("inst_flag"), 1);
+	}
+
+	// ---------------------- packInstance -----------------------------
+	/**
+	 * Write the shape's model matrix into instance slot i.
+	 */
+	static void packInstance(Shape3D shape, FloatBuffer buf, int i) {
+		shape.getModelMatrix(i * INSTANCE_FLOATS, buf);
+	}
+
+	// ---------------------- describeModelAttrib -----------------------
+	/**
+	 * Describe a per-instance mat4 at the start of each stride bytes of the
+	 * buffer bound to GL_ARRAY_BUFFER.
+	 */
+	static void describeModelAttrib(int iModel, int stride) {
+		if (iModel == -1)
+			return;
+		for (int col = 0; col < 4; col++) {
+			GLState.enableVertexAttribArray(iModel + col);
+			glVertexAttribPointer(iModel + col, 4, GL_FLOAT, false, stride, col * 16L);
+			glVertexAttribDivisor(iModel + col, 1);
+		}
+	}
+
+	// ---------------------- loadMeshArray ----------------------------
+	/**
+	 * Upload one mesh attribute array into its own VBO and describe it in
+	 * the currently bound VAO. Returns the vbo id, or -1 if nothing loaded.
+	 */
+	private int loadMeshArray(float[] data, int nVerts, int attrLoc) {
+		if (data == null || attrLoc == -1)
+			return -1;
+		FloatBuffer buf = temp.allocFloat(data.length);
+		buf.put(data).flip();
+		int vbo = UtilsLWJGL.genBuffer();
+		GLState.bindBuffer(GL_ARRAY_BUFFER, vbo);
+		glBufferData(GL_ARRAY_BUFFER, buf, GL_STATIC_DRAW);
+		GLState.enableVertexAttribArray(attrLoc);
+		glVertexAttribPointer(attrLoc, data.length / nVerts, GL_FLOAT, false, 0, 0L);
+		GLState.bindBuffer(GL_ARRAY_BUFFER, 0);
+		temp.free(buf);
+		return vbo;
+	}
+}
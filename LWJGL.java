@@ -11,6 +11,7 @@ import org.joml.Matrix4f;
 public class LWJGL
 {
     static int shaderProgram;
+    static ShaderProgram program = null; // shaderProgram's uniforms/attributes
     
     // Key transformations needed during scene creation.
     static Matrix4f modelMatrix = null;  // excluding scene transform
@@ -0,0 +1,105 @@
+/**
+ * LatencyHistogram.java - counts of durations in log-linear buckets, for
+ *           percentiles of per-frame times over a report interval.
+ *
+ * Below 64 ns every value has its own bucket; above, each power of two is
+ * cut into 32 buckets, so a percentile is within about 3% of the true
+ * value. The maximum is kept exactly. record does no allocation; the
+ * buckets cover up to 2^40 ns (18 minutes), longer times count as that.
+ *
+ * 10/17/26 created for the frame time percentiles (FrameTimer).
+ */
+import java.util.*;
+
+public class LatencyHistogram {
+	// ------------------ class variables ------------------------------
+	private static final int LINEAR = 64; // one bucket per ns below this
+	private static final int SUB_BITS = 5; // 32 buckets per power of two
+	private static final int MAX_EXPONENT = 40;
+	private static final int BUCKETS = LINEAR + (MAX_EXPONENT - 6 + 1) * (1 << SUB_BITS);
+
+	// ------------------ instance variables ----------------------------
+	private final String name;
+	private final long[] counts = new long[BUCKETS];
+	private long count = 0;
+	private long max = 0;
+
+	// ------------------ constructor ------------------------
+	LatencyHistogram(String name) {
+		this.name = name;
+	}
+
+	// ------------------------ record -----------------------------
+	void record(long nanos) {
+		if (nanos < 0)
+			nanos = 0;
+		counts[bucket(nanos)]++;
+		count++;
+		if (nanos > max)
+			max = nanos;
+	}
+
+	long count() {
+		return count;
+	}
+
+	// ------------------------ percentile -----------------------------
+	/**
+	 * The value below which p percent of the recorded values fall: the
+	 * middle of its bucket, never more than the maximum. 0 if empty.
+	 */
+	long percentile(double p) {
+		if (count == 0)
+			return 0;
+		long rank = (long) Math.ceil(p / 100 * count);
+		if (rank < 1)
+			rank = 1;
+		long seen = 0;
+		for (int b = 0; b < BUCKETS; b++) {
+			seen += counts[b];
+			if (seen >= rank)
+				return Math.min(max, middle(b));
+		}
+		return max;
+	}
+
+	// ------------------------ summary -----------------------------
+	/**
+	 * p50/p90/p99/max in ms, as one line for the log.
+	 */
+	String summary() {
+		return String.format("%-22s p50 %8.3f  p90 %8.3f  p99 %8.3f  max %8.3f ms  (%d)", name,
+				percentile(50) / 1e6, percentile(90) / 1e6, percentile(99) / 1e6, max / 1e6, count);
+	}
+
+	// ------------------------ reset -----------------------------
+	void reset() {
+		Arrays.fill(counts, 0L);
+		count = 0;
+		max = 0;
+	}
+
+	// ++++++++++++++++++++ private methods +++++++++++++++++++++++++++++++
+	private static int bucket(long v) {
+		if (v < LINEAR)
+			return (int) v;
+		int e = Math.min(63 - Long.numberOfLeadingZeros(v), MAX_EXPONENT); // >= 6
+		if (e == MAX_EXPONENT && v >= 1L << (MAX_EXPONENT + 1))
+			return BUCKETS - 1;
+		int sub = (int) (v >>> (e - SUB_BITS)) & ((1 << SUB_BITS) - 1);
+		return LINEAR + (e - 6) * (1 << SUB_BITS) + sub;
+	}
+
+	/**
+	 * A value in the middle of bucket b.
+	 */
+	private static long middle(int b) {
+		if (b < LINEAR)
+			return b;
+		int e = (b - LINEAR) / (1 << SUB_BITS) + 6;
+		int sub = (b - LINEAR) % (1 << SUB_BITS);
+		long low = (long) ((1 << SUB_BITS) + sub) << (e - SUB_BITS);
+		long width = 1L << (e - SUB_BITS);
+		return low + width / 2;
+	}
+}
@@ -0,0 +1,77 @@
+
+/**
+ * Lighting.java - where the evalDemo lighting is computed: on the cpu at
+ *           setData time (lc), in the vertex shader (lv, the default) or in
+ *           the fragment shader (lf).
+ *
+ * lc bakes the lit colors into the color array with the constants of
+ * lightedColor() in evalDemo.vsh. The light is fixed in object coordinates,
+ * so the result does not depend on the model matrix and can be computed
+ * once per mesh. The shape is then given no normals: no normal buffer is
+ * loaded and the shader has no vNormal attribute.
+ *
+ * The baked color array is kept per pair of input normal and color arrays
+ * (Shape3D.meshKey).
+ *
+ * 10/17/26 created for the l lighting options.
+ */
+import java.util.*;
+
+public class Lighting {
+	// ------------------ class variables ------------------------------
+	static final String CPU_DEFINE = "LIGHT_CPU";
+	static final String FRAGMENT_DEFINE = "LIGHT_FRAGMENT";
+
+	// the constants of lightedColor() in evalDemo.vsh
+	private static final float KA = 0.7f;
+	private static final float KD = 0.3f;
+	private static final float[] LIGHT_DIR = normalize(2, 3, 4);
+	private static final float[] LIGHT_COLOR = { 1, 1, 1 };
+
+	private static HashMap<List<Object>, float[]> baked = new HashMap<List<Object>, float[]>();
+
+	// ------------------------ bake -----------------------------
+	/**
+	 * The colors lit per vertex by the given normals. Alpha, if present, is
+	 * copied.
+	 *
+	 * @param nVerts
+	 *            int vertices in the arrays
+	 * @param normals
+	 *            float[] xyz[w] per vertex
+	 * @param colors
+	 *            float[] rgb[a] per vertex
+	 */
+	static float[] bake(int nVerts, float[] normals, float[] colors) {
+		if (normals == null || colors == null)
+			return colors;
+		List<Object> key = Arrays.asList((Object) normals, colors);
+		float[] lit = baked.get(key);
+		if (lit != null)
+			return lit;
+
+		long start = System.nanoTime();
+		int normSize = normals.length / nVerts;
+		int colorSize = colors.length / nVerts;
+		lit = colors.clone();
+		for (int v = 0; v < nVerts; v++) {
+			float[] n = normalize(normals[v * normSize], normals[v * normSize + 1], normals[v * normSize + 2]);
+			float diffuse = LIGHT_DIR[0] * n[0] + LIGHT_DIR[1] * n[1] + LIGHT_DIR[2] * n[2];
+			for (int k = 0; k < 3; k++) {
+				float c = colors[v * colorSize + k];
+				lit[v * colorSize + k] = KA * c + KD * c * LIGHT_COLOR[k] * diffuse;
+			}
+		}
+		baked.put(key, lit);
+		P3.log(String.format("Lighting baked: %d vertices (%5.2f ms)", nVerts, (System.nanoTime() - start) / 1.0e6f));
+		return lit;
+	}
+
+	// ++++++++++++++++++++ private methods +++++++++++++++++++++++++++++++
+	private static float[] normalize(float x, float y, float z) {
+		float len = (float) Math.sqrt(x * x + y * y + z * z);
+		if (len == 0)
+			return new float[] { 0, 0, 0 };
+		return new float[] { x / len, y / len, z / len };
+	}
+}
@@ -0,0 +1,309 @@
+
+/**
+ * MeshOptimizer.java - turns the non-indexed triangle arrays a Shape3D
+ *           passes to setData into an optimized indexed mesh (go).
+ *
+ * The pipeline:
+ *   1. weld: vertices with identical position, normal and color become one
+ *   2. triangle order for the post-transform vertex cache, using Tom
+ *      Forsyth's linear-speed optimizer (LRU cache model of 32 entries)
+ *   3. vertex order for fetch locality: vertices are renumbered in the
+ *      order the new index list first uses them
+ *   4. smallest index type that holds the vertex count: unsigned byte,
+ *      short or int
+ * ACMR (average cache miss ratio: transformed vertices per triangle) is
+ * measured with a 16 entry FIFO cache, a common hardware model, for the
+ * welded mesh in its original order and after optimization; non-indexed
+ * drawing is always 3.
+ *
+ * One optimized mesh is kept per set of input arrays (Shape3D.meshKey).
+ *
+ * 10/17/26 created for the go geometry option.
+ * 10/17/26 the ACMR line is logged only under go, not for the ds weld.
+ */
+import static org.lwjgl.opengl.GL11.*;
+
+import java.nio.*;
+import java.util.*;
+
+public class MeshOptimizer {
+	// ------------------ class variables ------------------------------
+	static final int CACHE_SIZE = 32; // LRU size the optimizer targets
+	static final int FIFO_SIZE = 16; // FIFO size ACMR is measured with
+
+	private static HashMap<List<Object>, Mesh> optimized = new HashMap<List<Object>, Mesh>();
+
+	// ---------------- an optimized indexed mesh --------------------
+	static class Mesh {
+		int nVertices;
+		float[] positions;
+		float[] normals; // null if input had none
+		float[] colors; // null if input had none
+		byte[] indexes; // native order, indexType wide
+		int indexType; // GL_UNSIGNED_BYTE, _SHORT or _INT
+		int[] triangles; // the same indexes as ints
+	}
+
+	// ------------------------ optimize -----------------------------
+	/**
+	 * The optimized indexed version of a non-indexed triangle mesh; built
+	 * the first time these arrays are seen, and logged then if go is on.
+	 *
+	 * @param nVerts
+	 *            int vertices in the arrays, 3 per triangle
+	 * @param pos
+	 *            float[] positions, xyz[w] per vertex
+	 * @param norms
+	 *            float[] normals per vertex or null
+	 * @param colors
+	 *            float[] rgb[a] per vertex or null
+	 */
+	static Mesh optimize(int nVerts, float[] pos, float[] norms, float[] colors) {
+		List<Object> key = Arrays.asList((Object) pos, norms, colors);
+		Mesh mesh = optimized.get(key);
+		if (mesh == null) {
+			mesh = build(nVerts, pos, norms, colors);
+			optimized.put(key, mesh);
+		}
+		return mesh;
+	}
+
+	// ++++++++++++++++++++ private methods +++++++++++++++++++++++++++++++
+	// ---------------------- build -----------------------------------
+	private static Mesh build(int nVerts, float[] pos, float[] norms, float[] colors) {
+		long start = System.nanoTime();
+		int posSize = pos.length / nVerts;
+		int normSize = norms == null ? 0 : norms.length / nVerts;
+		int colorSize = colors == null ? 0 : colors.length / nVerts;
+
+		// ---- 1. weld identical vertices
+		HashMap<List<Float>, Integer> unique = new HashMap<List<Float>, Integer>();
+		int[] indexes = new int[nVerts];
+		int[] source = new int[nVerts]; // welded vertex -> an input vertex
+		int nUnique = 0;
+		for (int v = 0; v < nVerts; v++) {
+			ArrayList<Float> attribs = new ArrayList<Float>();
+			for (int k = 0; k < posSize; k++)
+				attribs.add(pos[v * posSize + k]);
+			for (int k = 0; k < normSize; k++)
+				attribs.add(norms[v * normSize + k]);
+			for (int k = 0; k < colorSize; k++)
+				attribs.add(colors[v * colorSize + k]);
+			Integer at = unique.get(attribs);
+			if (at == null) {
+				at = nUnique++;
+				unique.put(attribs, at);
+				source[at] = v;
+			}
+			indexes[v] = at;
+		}
+		float acmrWelded = acmr(indexes, nUnique);
+
+		// ---- 2. triangle order for the vertex cache
+		indexes = reorderTriangles(indexes, nUnique);
+
+		// ---- 3. vertex order of first use
+		int[] newIndex = new int[nUnique];
+		Arrays.fill(newIndex, -1);
+		int[] order = new int[nUnique]; // new vertex -> welded vertex
+		int next = 0;
+		for (int i = 0; i < indexes.length; i++) {
+			if (newIndex[indexes[i]] == -1) {
+				newIndex[indexes[i]] = next;
+				order[next++] = indexes[i];
+			}
+			indexes[i] = newIndex[indexes[i]];
+		}
+		float acmrOptimized = acmr(indexes, nUnique);
+
+		Mesh mesh = new Mesh();
+		mesh.nVertices = next;
+		mesh.positions = gather(pos, posSize, order, source, next);
+		mesh.normals = norms == null ? null : gather(norms, normSize, order, source, next);
+		mesh.colors = colors == null ? null : gather(colors, colorSize, order, source, next);
+		mesh.triangles = indexes;
+
+		// ---- 4. smallest index type
+		int bytesPerIndex;
+		if (next <= 0x100) {
+			mesh.indexType = GL_UNSIGNED_BYTE;
+			bytesPerIndex = 1;
+		} else if (next <= 0x10000) {
+			mesh.indexType = GL_UNSIGNED_SHORT;
+			bytesPerIndex = 2;
+		} else {
+			mesh.indexType = GL_UNSIGNED_INT;
+			bytesPerIndex = 4;
+		}
+		mesh.indexes = new byte[indexes.length * bytesPerIndex];
+		ByteBuffer buf = ByteBuffer.wrap(mesh.indexes).order(ByteOrder.nativeOrder());
+		for (int index : indexes) {
+			if (bytesPerIndex == 1)
+				buf.put((byte) index);
+			else if (bytesPerIndex == 2)
+				buf.putShort((short) index);
+			else
+				buf.putInt(index);
+		}
+
+		float ms = (System.nanoTime() - start) / 1.0e6f;
+		if (Shape3D.optimizeMeshes) // ds welds through here too and logs its strips
+			P3.log(String.format("Mesh optimize: %d -> %d vertices, %d-byte indexes, ACMR 3.00 unindexed  %4.2f welded"
+					+ "  %4.2f optimized  (%5.2f ms)", nVerts, next, bytesPerIndex, acmrWelded, acmrOptimized, ms));
+		return mesh;
+	}
+
+	// ---------------------- gather -----------------------------------
+	/**
+	 * The attribute array for the new vertex order.
+	 */
+	private static float[] gather(float[] data, int size, int[] order, int[] source, int n) {
+		float[] out = new float[n * size];
+		for (int v = 0; v < n; v++)
+			System.arraycopy(data, source[order[v]] * size, out, v * size, size);
+		return out;
+	}
+
+	// ---------------------- acmr -----------------------------------
+	/**
+	 * Vertices transformed per triangle with a FIFO post-transform cache.
+	 */
+	static float acmr(int[] indexes, int nVerts) {
+		int[] fifo = new int[FIFO_SIZE];
+		Arrays.fill(fifo, -1);
+		boolean[] cached = new boolean[nVerts];
+		int head = 0;
+		int misses = 0;
+		for (int index : indexes) {
+			if (cached[index])
+				continue;
+			misses++;
+			if (fifo[head] != -1)
+				cached[fifo[head]] = false;
+			fifo[head] = index;
+			cached[index] = true;
+			head = (head + 1) % FIFO_SIZE;
+		}
+		return indexes.length == 0 ? 0 : misses / (indexes.length / 3.0f);
+	}
+
+	// ---------------------- reorderTriangles -------------------------------
+	/**
+	 * Forsyth's greedy ordering: repeatedly emit the triangle with the
+	 * highest score, where a vertex scores high when it is recently used in
+	 * a simulated LRU cache and when few of its triangles are left.
+	 */
+	private static int[] reorderTriangles(int[] indexes, int nVerts) {
+		int nTris = indexes.length / 3;
+		// ---- triangles of each vertex
+		int[] remaining = new int[nVerts];
+		for (int index : indexes)
+			remaining[index]++;
+		int[] triStart = new int[nVerts + 1];
+		for (int v = 0; v < nVerts; v++)
+			triStart[v + 1] = triStart[v] + remaining[v];
+		int[] vertTris = new int[indexes.length];
+		int[] fill = Arrays.copyOf(triStart, nVerts);
+		for (int t = 0; t < nTris; t++)
+			for (int k = 0; k < 3; k++)
+				vertTris[fill[indexes[3 * t + k]]++] = t;
+
+		int[] cachePos = new int[nVerts];
+		Arrays.fill(cachePos, -1);
+		float[] vertScore = new float[nVerts];
+		for (int v = 0; v < nVerts; v++)
+			vertScore[v] = vertexScore(cachePos[v], remaining[v]);
+		float[] triScore = new float[nTris];
+		for (int t = 0; t < nTris; t++)
+			triScore[t] = vertScore[indexes[3 * t]] + vertScore[indexes[3 * t + 1]] + vertScore[indexes[3 * t + 2]];
+		boolean[] emitted = new boolean[nTris];
+
+		int[] cache = new int[CACHE_SIZE + 3];
+		int cacheUsed = 0;
+		int[] out = new int[indexes.length];
+		int nOut = 0;
+		int scan = 0; // all triangles before scan are emitted
+		int best = -1;
+		while (nOut < nTris) {
+			if (best == -1) {
+				// nothing in the cache scores; take the best remaining
+				float bestScore = -1;
+				while (emitted[scan])
+					scan++;
+				for (int t = scan; t < nTris; t++)
+					if (!emitted[t] && triScore[t] > bestScore) {
+						bestScore = triScore[t];
+						best = t;
+					}
+			}
+			emitted[best] = true;
+			int[] tri = { indexes[3 * best], indexes[3 * best + 1], indexes[3 * best + 2] };
+			for (int k = 0; k < 3; k++) {
+				out[3 * nOut + k] = tri[k];
+				// drop best from the vertex's triangle list
+				int v = tri[k];
+				int end = triStart[v] + remaining[v];
+				for (int i = triStart[v]; i < end; i++)
+					if (vertTris[i] == best) {
+						vertTris[i] = vertTris[end - 1];
+						break;
+					}
+				remaining[v]--;
+			}
+			nOut++;
+
+			// ---- move the triangle's vertices to the front of the cache
+			int[] newCache = new int[CACHE_SIZE + 3];
+			int used = 0;
+			for (int k = 0; k < 3; k++)
+				newCache[used++] = tri[k];
+			for (int i = 0; i < cacheUsed; i++) {
+				int v = cache[i];
+				if (v != tri[0] && v != tri[1] && v != tri[2])
+					newCache[used++] = v;
+			}
+			for (int i = 0; i < used; i++)
+				cachePos[newCache[i]] = i < CACHE_SIZE ? i : -1;
+			cache = newCache;
+			cacheUsed = Math.min(used, CACHE_SIZE);
+
+			// ---- rescore touched vertices and their triangles; pick next
+			for (int i = 0; i < used; i++)
+				vertScore[cache[i]] = vertexScore(cachePos[cache[i]], remaining[cache[i]]);
+			best = -1;
+			float bestScore = 0;
+			for (int i = 0; i < cacheUsed; i++) {
+				int v = cache[i];
+				for (int j = triStart[v]; j < triStart[v] + remaining[v]; j++) {
+					int t = vertTris[j];
+					triScore[t] = vertScore[indexes[3 * t]] + vertScore[indexes[3 * t + 1]]
+							+ vertScore[indexes[3 * t + 2]];
+					if (triScore[t] > bestScore) {
+						bestScore = triScore[t];
+						best = t;
+					}
+				}
+			}
+		}
+		return out;
+	}
+
+	// ---------------------- vertexScore -----------------------------------
+	/**
+	 * Forsyth's vertex score: the 3 most recent cache entries score a flat
+	 * 0.75 (the last triangle), older ones fall off with position; vertices
+	 * with few triangles left get a boost so they are finished off.
+	 */
+	private static float vertexScore(int cachePosition, int trisLeft) {
+		if (trisLeft == 0)
+			return -1;
+		float score = 0;
+		if (cachePosition >= 0) {
+			if (cachePosition < 3)
+				score = 0.75f;
+			else
+				score = (float) Math.pow(1.0 - (cachePosition - 3) / (float) (CACHE_SIZE - 3), 1.5);
+		}
+		return score + 2.0f * (float) Math.pow(trisLeft, -0.5);
+	}
+}
@@ -0,0 +1,171 @@
+
+/**
+ * ModelStore.java - keeps every object's model matrix in one shader storage
+ *           buffer indexed per object in the vertex shader (us).
+ *
+ * A cpu shadow copy holds one mat4 per object slot. Each frame, update()
+ * copies the matrices of shapes flagged by modelNeedsUpdate and marks
+ * their slots dirty; consecutive dirty slots are coalesced into ranges and
+ * each range is sent with one glBufferSubData. Static objects cost nothing
+ * after the first frame.
+ *
+ * The shader (compiled with MODEL_SSBO) reads models[ iObject ]. iObject is
+ * an integer instance attribute over a 0..n-1 buffer; drawing with
+ * baseInstance = slot makes it the object's index, so no per-draw uniform is
+ * needed.
+ *
+ * Needs OpenGL 4.3: shader storage buffers, baseInstance, and GLSL 430 core
+ * for the shader; on Linux and Mac set GLVERSION=4.3.
+ *
+ * 10/17/26 created for the us model-upload option.
+ * 10/17/26 update allocates nothing: indexed loop and a kept upload view.
+ * 10/17/26 uploads counted for the wm breakdown.
+ */
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL20.*;
+import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL31.*;
+import static org.lwjgl.opengl.GL33.*;
+import static org.lwjgl.opengl.GL43.*;
+
+import java.nio.*;
+import java.util.*;
+
+
+public class ModelStore {
+	// ------------------ class variables ------------------------------
+	static final String SHADER_DEFINE = "MODEL_SSBO";
+	static final int BINDING = 0; // shader storage binding point
+	private static final int MATRIX_FLOATS = 16;
+
+	// ------------------ instance variables ----------------------------
+	private int capacity;
+	private int ssbo = -1;
+	private int objectIdVBO = -1; // 0..capacity-1 for iObject
+	private int iObject = -1;
+	private FloatBuffer shadow = null; // from memory
+	private NativeArena memory = NativeArena.pool("ModelStore"); // freed by close
+	private FloatBuffer range = null; // view of shadow for dirty ranges
+	private BitSet dirty;
+
+	// -------- upload accounting since last report
+	private int uploadedMatrices = 0;
+	private int uploadedRanges = 0;
+
+	// ------------------ constructor ------------------------
+	/**
+	 * Create the storage buffer and the object index buffer.
+	 *
+	 * @param capacity
+	 *            int number of object slots
+	 */
+	public ModelStore(int capacity) {
+		UtilsLWJGL.glError("--->ModelStore"); // clean out old errors
+		this.capacity = capacity;
+		int pgm = LWJGL.shaderProgram;
+		shadow = memory.allocFloat(capacity * MATRIX_FLOATS);
+		range = shadow.duplicate();
+		dirty = new BitSet(capacity); // never grows during a frame
+		NativeArena temp = NativeArena.scoped("ModelStore.build");
+
+		ssbo = UtilsLWJGL.genBuffer();
+		GLState.bindBuffer(GL_SHADER_STORAGE_BUFFER, ssbo);
+		glBufferData(GL_SHADER_STORAGE_BUFFER, (long) capacity * MATRIX_FLOATS * 4, GL_DYNAMIC_DRAW);
+		GLState.bindBuffer(GL_SHADER_STORAGE_BUFFER, 0);
+		glBindBufferBase(GL_SHADER_STORAGE_BUFFER, BINDING, ssbo);
+		int block = glGetProgramResourceIndex(pgm, GL_SHADER_STORAGE_BLOCK, "ModelStore");
+		if (block == GL_INVALID_INDEX)
+			System.err.println("***** ModelStore block is undefined! (shader built without " + SHADER_DEFINE + "?)");
+		else
+			glShaderStorageBlockBinding(pgm, block, BINDING);
+
+		IntBuffer ids = temp.allocInt(capacity);
+		for (int i = 0; i < capacity; i++)
+			ids.put(i);
+		ids.flip();
+		objectIdVBO = UtilsLWJGL.genBuffer();
+		GLState.bindBuffer(GL_ARRAY_BUFFER, objectIdVBO);
+		glBufferData(GL_ARRAY_BUFFER, ids, GL_STATIC_DRAW);
+		GLState.bindBuffer(GL_ARRAY_BUFFER, 0);
+		temp.close();
+		iObject = ShaderProgram.of(pgm).attribute("iObject");
+
+		System.err.println("Model store: " + capacity + " matrices in a shader storage buffer");
+		UtilsLWJGL.glError("<---ModelStore"); // check for glerrors
+	}
+
+	// ------------------------ close -----------------------------
+	/**
+	 * Free the shadow copy; the store must not be used afterwards.
+	 */
+	public void close() {
+		memory.close();
+	}
+
+	// ------------------------ describe -----------------------------
+	/**
+	 * Add the iObject attribute to the given VAO.
+	 */
+	public void describe(int vaoId) {
+		if (iObject == -1)
+			return;
+		GLState.bindVertexArray(vaoId);
+		GLState.bindBuffer(GL_ARRAY_BUFFER, objectIdVBO);
+		GLState.enableVertexAttribArray(iObject);
+		glVertexAttribIPointer(iObject, 1, GL_INT, 0, 0L);
+		glVertexAttribDivisor(iObject, 1);
+		GLState.bindBuffer(GL_ARRAY_BUFFER, 0);
+		GLState.bindVertexArray(0);
+	}
+
+	// ------------------------ holds -----------------------------
+	/**
+	 * True if the slot fits in the store.
+	 */
+	public boolean holds(int slot) {
+		return slot >= 0 && slot < capacity;
+	}
+
+	// ------------------------ update -----------------------------
+	/**
+	 * Recompute the matrices of shapes whose model changed and upload the
+	 * dirty slots as coalesced ranges.
+	 */
+	public void update(ArrayList<Shape3D> shapes) {
+		long start = System.nanoTime();
+		int matrices = uploadedMatrices;
+		for (int i = 0; i < shapes.size(); i++) {
+			Shape3D shape = shapes.get(i);
+			if (shape.modelNeedsUpdate() && holds(shape.objectIndex)) {
+				shape.getModelMatrix(shape.objectIndex * MATRIX_FLOATS, shadow);
+				dirty.set(shape.objectIndex);
+			}
+		}
+		if (dirty.isEmpty())
+			return;
+		GLState.bindBuffer(GL_SHADER_STORAGE_BUFFER, ssbo);
+		for (int lo = dirty.nextSetBit(0); lo >= 0; lo = dirty.nextSetBit(lo)) {
+			int hi = dirty.nextClearBit(lo); // exclusive
+			range.limit(hi * MATRIX_FLOATS).position(lo * MATRIX_FLOATS);
+			glBufferSubData(GL_SHADER_STORAGE_BUFFER, lo * MATRIX_FLOATS * 4L, range);
+			range.clear();
+			uploadedMatrices += hi - lo;
+			uploadedRanges++;
+			lo = hi;
+		}
+		GLState.bindBuffer(GL_SHADER_STORAGE_BUFFER, 0);
+		dirty.clear();
+		Animator.countUpload(start, (uploadedMatrices - matrices) * MATRIX_FLOATS * 4L);
+	}
+
+	// ------------------------ report -----------------------------
+	/**
+	 * Log matrix upload traffic over the last report interval and reset it.
+	 */
+	public void report(int frames) {
+		P3.log(String.format("Model store uploads: %d matrices in %d ranges", uploadedMatrices, uploadedRanges));
+		uploadedMatrices = 0;
+		uploadedRanges = 0;
+	}
+}
@@ -0,0 +1,218 @@
+
+/**
+ * MultiDrawRenderer.java - submits a whole Scene with one
+ *           glMultiDrawElementsIndirect call (dm).
+ *
+ * The distinct meshes of the scene are merged into one vertex/index buffer
+ * pair (positions xyz, normals xyz, colors rgba; unsigned int indexes; mesh
+ * data from glDrawArrays gets a 0..n-1 index list). The scene is compiled into
+ * a GPU-resident indirect buffer with one DrawElementsIndirectCommand per
+ * shape: its count/firstIndex/baseVertex select the shape's mesh and its
+ * baseInstance is the shape's slot in the instance buffer. Instance
+ * attributes with a divisor of 1 are fetched at baseInstance, so each draw
+ * reads its own model matrix through iModel without any per-draw uniform.
+ *
+ * Needs OpenGL 4.3; on Linux and Mac set GLVERSION=4.3 since UtilsLWJGL
+ * asks for 4.1 there by default. Without it SceneManager turns dm off and
+ * the shapes draw themselves.
+ *
+ * 10/17/26 created for the dm draw option.
+ * 10/17/26 instance uploads counted for the wm breakdown.
+ */
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL20.*;
+import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL40.*;
+import static org.lwjgl.opengl.GL43.*;
+
+import java.nio.*;
+import java.util.*;
+
+public class MultiDrawRenderer {
+	// ------------------ class variables ------------------------------
+	static final int COMMAND_INTS = 5; // DrawElementsIndirectCommand
+	private static final int VERTEX_FLOATS = 10; // xyz + xyz + rgba
+
+	// ------------------ instance variables ----------------------------
+	private ArrayList<Shape3D> shapes;
+	private int nCommands = 0;
+
+	private int vaoId = -1;
+	private int vertexVBO = -1;
+	private int indexVBO = -1;
+	private int instanceVBO = -1;
+	private int commandBuffer = -1; // GL_DRAW_INDIRECT_BUFFER
+	private FloatBuffer instanceBuf = null; // from memory
+	private NativeArena memory = NativeArena.pool("MultiDrawRenderer"); // freed by close
+
+	// ------------------ constructor ------------------------
+	/**
+	 * Merge the scene meshes, build the instance buffer and compile the
+	 * indirect command buffer.
+	 *
+	 * @param shapes
+	 *            ArrayList<Shape3D> all shapes in the scene
+	 */
+	public MultiDrawRenderer(ArrayList<Shape3D> shapes) {
+		UtilsLWJGL.glError("--->MultiDrawRenderer"); // clean out old errors
+		this.shapes = shapes;
+		int pgm = LWJGL.shaderProgram;
+		ShaderProgram program = ShaderProgram.of(pgm);
+		int vPosition = program.attribute("vPosition");
+		int vNormal = program.attribute("vNormal");
+		int vColor = program.attribute("vColor");
+		int iModel = program.attribute("iModel");
+
+		// ---- find distinct meshes and where each lands in the merged buffers
+		LinkedHashMap<List<Object>, int[]> meshAt = new LinkedHashMap<List<Object>, int[]>();
+		ArrayList<Shape3D> meshes = new ArrayList<Shape3D>();
+		int totalVerts = 0;
+		int totalIndexes = 0;
+		for (Shape3D shape : shapes) {
+			List<Object> key = shape.meshKey();
+			if (!meshAt.containsKey(key)) {
+				int nIndexes = shape.meshIndexes != null ? shape.meshIndexCount() : shape.meshVertices;
+				// { baseVertex, firstIndex, count }
+				meshAt.put(key, new int[] { totalVerts, totalIndexes, nIndexes });
+				meshes.add(shape);
+				totalVerts += shape.meshVertices;
+				totalIndexes += nIndexes;
+			}
+		}
+
+		NativeArena temp = NativeArena.scoped("MultiDrawRenderer.build");
+		FloatBuffer vertexBuf = temp.allocFloat(totalVerts * VERTEX_FLOATS);
+		IntBuffer indexBuf = temp.allocInt(totalIndexes);
+		for (Shape3D mesh : meshes)
+			appendMesh(mesh, vertexBuf, indexBuf);
+		vertexBuf.flip();
+		indexBuf.flip();
+
+		// ---- one command per shape; baseInstance selects its model matrix
+		nCommands = shapes.size();
+		IntBuffer commands = temp.allocInt(nCommands * COMMAND_INTS);
+		instanceBuf = memory.allocFloat(nCommands * InstancedRenderer.INSTANCE_FLOATS);
+		for (int i = 0; i < nCommands; i++) {
+			Shape3D shape = shapes.get(i);
+			int[] at = meshAt.get(shape.meshKey());
+			commands.put(at[2]); // count
+			commands.put(1); // instanceCount
+			commands.put(at[1]); // firstIndex
+			commands.put(at[0]); // baseVertex
+			commands.put(i); // baseInstance
+			InstancedRenderer.packInstance(shape, instanceBuf, i);
+		}
+		commands.flip();
+
+		// ---- GL objects
+		vaoId = UtilsLWJGL.genVertexArray();
+		GLState.bindVertexArray(vaoId);
+
+		vertexVBO = UtilsLWJGL.genBuffer();
+		GLState.bindBuffer(GL_ARRAY_BUFFER, vertexVBO);
+		glBufferData(GL_ARRAY_BUFFER, vertexBuf, GL_STATIC_DRAW);
+		int stride = VERTEX_FLOATS * 4;
+		describeVertexAttrib(vPosition, 3, stride, 0L);
+		describeVertexAttrib(vNormal, 3, stride, 12L);
+		describeVertexAttrib(vColor, 4, stride, 24L);
+
+		indexVBO = UtilsLWJGL.genBuffer();
+		GLState.bindBuffer(GL_ELEMENT_ARRAY_BUFFER, indexVBO); // VAO state
+		glBufferData(GL_ELEMENT_ARRAY_BUFFER, indexBuf, GL_STATIC_DRAW);
+
+		instanceVBO = UtilsLWJGL.genBuffer();
+		GLState.bindBuffer(GL_ARRAY_BUFFER, instanceVBO);
+		glBufferData(GL_ARRAY_BUFFER, instanceBuf, GL_DYNAMIC_DRAW);
+		InstancedRenderer.describeModelAttrib(iModel, InstancedRenderer.INSTANCE_STRIDE);
+		GLState.bindBuffer(GL_ARRAY_BUFFER, 0);
+		GLState.bindVertexArray(0);
+
+		commandBuffer = UtilsLWJGL.genBuffer();
+		GLState.bindBuffer(GL_DRAW_INDIRECT_BUFFER, commandBuffer);
+		glBufferData(GL_DRAW_INDIRECT_BUFFER, commands, GL_STATIC_DRAW);
+		GLState.bindBuffer(GL_DRAW_INDIRECT_BUFFER, 0);
+
+		temp.close();
+
+		InstancedRenderer.setInstanceFlag(pgm);
+		System.err.println("Multi-draw indirect: " + nCommands + " commands over " + meshes.size() + " meshes, "
+				+ totalVerts + " vertices");
+		UtilsLWJGL.glError("<---MultiDrawRenderer"); // check for glerrors
+	}
+
+	// ------------------------ close -----------------------------
+	/**
+	 * Free instanceBuf; the renderer must not be used afterwards.
+	 */
+	public void close() {
+		memory.close();
+	}
+
+	// ------------------------ redraw -----------------------------
+	/**
+	 * Refresh model matrices that changed and submit every shape with one
+	 * glMultiDrawElementsIndirect.
+	 */
+	public void redraw() {
+		long start = System.nanoTime();
+		boolean dirty = false;
+		for (int i = 0; i < nCommands; i++) {
+			Shape3D shape = shapes.get(i);
+			if (shape.modelNeedsUpdate()) {
+				shape.getModelMatrix(i * InstancedRenderer.INSTANCE_FLOATS, instanceBuf);
+				dirty = true;
+			}
+		}
+		if (dirty) {
+			GLState.bindBuffer(GL_ARRAY_BUFFER, instanceVBO);
+			glBufferSubData(GL_ARRAY_BUFFER, 0, instanceBuf);
+			GLState.bindBuffer(GL_ARRAY_BUFFER, 0);
+			Animator.countUpload(start, instanceBuf.remaining() * 4L);
+		}
+		GLState.bindVertexArray(vaoId);
+		GLState.bindBuffer(GL_DRAW_INDIRECT_BUFFER, commandBuffer);
+		glMultiDrawElementsIndirect(GL_TRIANGLES, GL_UNSIGNED_INT, 0L, nCommands, 0);
+		GLState.bindBuffer(GL_DRAW_INDIRECT_BUFFER, 0);
+		GLState.bindVertexArray(0);
+	}
+
+	// ++++++++++++++++++++ private methods +++++++++++++++++++++++++++++++
+	// ---------------------- appendMesh -----------------------------------
+	/**
+	 * Append one mesh to the merged arrays: interleave xyz, normal xyz and
+	 * rgba per vertex; indexes stay relative to the mesh since baseVertex
+	 * is applied by the draw command.
+	 */
+	private static void appendMesh(Shape3D mesh, FloatBuffer vertexBuf, IntBuffer indexBuf) {
+		int n = mesh.meshVertices;
+		int posSize = mesh.meshPositions.length / n;
+		int normSize = mesh.meshNormals == null ? 0 : mesh.meshNormals.length / n;
+		int colorSize = mesh.meshColors == null ? 0 : mesh.meshColors.length / n;
+		for (int v = 0; v < n; v++) {
+			for (int k = 0; k < 3; k++)
+				vertexBuf.put(mesh.meshPositions[v * posSize + k]);
+			for (int k = 0; k < 3; k++)
+				vertexBuf.put(normSize == 0 ? 0 : mesh.meshNormals[v * normSize + k]);
+			for (int k = 0; k < 4; k++)
+				vertexBuf.put(k < colorSize ? mesh.meshColors[v * colorSize + k] : 1);
+		}
+		if (mesh.meshIndexes != null)
+			for (int i = 0; i < mesh.meshIndexCount(); i++)
+				indexBuf.put(mesh.meshIndex(i));
+		else
+			for (int v = 0; v < n; v++)
+				indexBuf.put(v);
+	}
+
+	// ---------------------- describeVertexAttrib ---------------------------
+	/**
+	 * Describe one float attribute of the buffer bound to GL_ARRAY_BUFFER.
+	 */
+	static void describeVertexAttrib(int attrLoc, int size, int stride, long offset) {
+		if (attrLoc == -1)
+			return;
+		GLState.enableVertexAttribArray(attrLoc);
+		glVertexAttribPointer(attrLoc, size, GL_FLOAT, false, stride, offset);
+	}
+}
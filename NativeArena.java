@@ -0,0 +1,230 @@
+
+/**
+ * NativeArena.java - native (MemoryUtil) allocations with an owner, so they
+ *           are released by close() rather than left to finalizers, and
+ *           accounted by site so leaks show in the log.
+ *
+ * An arena is named for the code that allocates from it; that name is the
+ * call site in the report. Two lifetimes:
+ *   scoped  temporaries of a construction step; close() at the end of the
+ *           step frees them all. The arena may be used again afterwards.
+ *   pool    long-lived per-object buffers; free() returns a buffer to the
+ *           pool for reuse by the next allocation of the same size, and
+ *           close() frees everything when the owner goes away.
+ * Every buffer an arena hands out is freed by its close() unless free()
+ * released it first. An arena is used by one thread at a time; the
+ * accounting across arenas is synchronized.
+ *
+ * report logs live bytes and buffers, and allocations per interval; sites
+ * are listed when their live bytes changed, so a steady run logs one line.
+ *
+ * 10/17/26 created to replace finalize() cleanup and the setColor leak.
+ */
+import java.nio.*;
+import java.util.*;
+
+import org.lwjgl.system.MemoryUtil;
+
+public class NativeArena implements AutoCloseable {
+	// ------------------ class variables ------------------------------
+	private static final Object lock = new Object();
+	private static LinkedHashMap<String, Site> sites = new LinkedHashMap<String, Site>();
+	private static long liveBytes = 0;
+	private static long liveBuffers = 0;
+	private static long allocations = 0; // since last report
+
+	// ---------------- accounting for one site ------------------------
+	private static class Site {
+		String name;
+		long liveBytes;
+		long liveBuffers;
+		long allocations; // total
+		long reportedBytes = -1; // live bytes at the last listing
+	}
+
+	// ------------------ instance variables ----------------------------
+	private final Site site;
+	private final boolean recycle;
+	private HashMap<Long, Integer> live = new HashMap<Long, Integer>(); // address -> bytes
+	private HashMap<Integer, ArrayDeque<Long>> spare = new HashMap<Integer, ArrayDeque<Long>>(); // pool
+
+	// ------------------ constructor ------------------------
+	private NativeArena(String name, boolean recycle) {
+		this.recycle = recycle;
+		synchronized (lock) {
+			Site s = sites.get(name);
+			if (s == null) {
+				s = new Site();
+				s.name = name;
+				sites.put(name, s);
+			}
+			site = s;
+		}
+	}
+
+	/**
+	 * An arena for temporaries, all freed by close().
+	 */
+	static NativeArena scoped(String name) {
+		return new NativeArena(name, false);
+	}
+
+	/**
+	 * A pool for long-lived buffers; freed buffers are reused.
+	 */
+	static NativeArena pool(String name) {
+		return new NativeArena(name, true);
+	}
+
+	// ------------------------ alloc -----------------------------
+	/**
+	 * A native order buffer of the given number of bytes.
+	 */
+	ByteBuffer alloc(int bytes) {
+		return MemoryUtil.memByteBuffer(allocate(bytes), bytes).order(ByteOrder.nativeOrder());
+	}
+
+	FloatBuffer allocFloat(int n) {
+		return MemoryUtil.memFloatBuffer(allocate(4 * n), n);
+	}
+
+	IntBuffer allocInt(int n) {
+		return MemoryUtil.memIntBuffer(allocate(4 * n), n);
+	}
+
+	// ------------------------ realloc -----------------------------
+	/**
+	 * Resize a buffer from this arena (or allocate if null), keeping its
+	 * contents and position as MemoryUtil.memRealloc does.
+	 */
+	ByteBuffer realloc(ByteBuffer buf, int bytes) {
+		if (buf == null)
+			return alloc(bytes);
+		ByteBuffer out = MemoryUtil.memByteBuffer(reallocate(MemoryUtil.memAddress0(buf), bytes), bytes)
+				.order(ByteOrder.nativeOrder());
+		out.position(Math.min(bytes, buf.position()));
+		return out;
+	}
+
+	FloatBuffer realloc(FloatBuffer buf, int n) {
+		if (buf == null)
+			return allocFloat(n);
+		FloatBuffer out = MemoryUtil.memFloatBuffer(reallocate(MemoryUtil.memAddress0(buf), 4 * n), n);
+		out.position(Math.min(n, buf.position()));
+		return out;
+	}
+
+	// ------------------------ free -----------------------------
+	/**
+	 * Release one buffer of this arena now; a pool keeps it for reuse.
+	 * Null is ignored.
+	 */
+	void free(Buffer buf) {
+		if (buf == null)
+			return;
+		long address = MemoryUtil.memAddress0(buf);
+		Integer bytes = live.remove(address);
+		if (bytes == null) {
+			P3.logErr("NativeArena " + site.name + ": free of a buffer it does not own");
+			return;
+		}
+		if (recycle) {
+			ArrayDeque<Long> list = spare.get(bytes);
+			if (list == null)
+				spare.put(bytes, list = new ArrayDeque<Long>());
+			list.push(address);
+		} else
+			release(address, bytes);
+	}
+
+	// ------------------------ close -----------------------------
+	/**
+	 * Free every buffer this arena handed out and still holds.
+	 */
+	public void close() {
+		for (Map.Entry<Long, Integer> e : live.entrySet())
+			release(e.getKey(), e.getValue());
+		live.clear();
+		for (Map.Entry<Integer, ArrayDeque<Long>> e : spare.entrySet())
+			for (long address : e.getValue())
+				release(address, e.getKey());
+		spare.clear();
+	}
+
+	// ------------------------ liveBytes -----------------------------
+	static long liveBytes() {
+		synchronized (lock) {
+			return liveBytes;
+		}
+	}
+
+	// ------------------------ report -----------------------------
+	/**
+	 * Log live native memory and allocations over the last interval, and
+	 * each site whose live bytes changed since it was last listed (all
+	 * sites with frames -1). Resets the interval count.
+	 */
+	public static void report(int frames) {
+		synchronized (lock) {
+			float n = frames <= 0 ? 1 : frames;
+			P3.log(String.format("Native memory: live %d bytes in %d buffers; allocations per frame %10.1f",
+					liveBytes, liveBuffers, allocations / n));
+			for (Site s : sites.values()) {
+				if (s.liveBytes == s.reportedBytes && frames != -1)
+					continue;
+				P3.log(String.format("    %-32s live %10d bytes %7d buffers  allocations %9d", s.name, s.liveBytes,
+						s.liveBuffers, s.allocations));
+				s.reportedBytes = s.liveBytes;
+			}
+			allocations = 0;
+		}
+	}
+
+	// ++++++++++++++++++++ private methods +++++++++++++++++++++++++++++++
+	private long allocate(int bytes) {
+		if (recycle) {
+			ArrayDeque<Long> list = spare.get(bytes);
+			if (list != null && !list.isEmpty()) {
+				long address = list.pop();
+				live.put(address, bytes);
+				return address;
+			}
+		}
+		long address = MemoryUtil.nmemAlloc(Math.max(bytes, 1));
+		if (address == 0L)
+			throw new OutOfMemoryError("NativeArena " + site.name + ": " + bytes + " bytes");
+		live.put(address, bytes);
+		count(bytes, 1);
+		return address;
+	}
+
+	private long reallocate(long address, int bytes) {
+		Integer old = live.remove(address);
+		if (old == null)
+			throw new IllegalArgumentException("NativeArena " + site.name + ": realloc of a buffer it does not own");
+		long moved = MemoryUtil.nmemRealloc(address, Math.max(bytes, 1));
+		if (moved == 0L)
+			throw new OutOfMemoryError("NativeArena " + site.name + ": " + bytes + " bytes");
+		live.put(moved, bytes);
+		count(bytes - old, 0);
+		return moved;
+	}
+
+	private void release(long address, int bytes) {
+		MemoryUtil.nmemFree(address);
+		count(-bytes, -1);
+	}
+
+	private void count(long bytes, int buffers) {
+		synchronized (lock) {
+			liveBytes += bytes;
+			liveBuffers += buffers;
+			site.liveBytes += bytes;
+			site.liveBuffers += buffers;
+			if (buffers > 0) {
+				allocations++;
+				site.allocations++;
+			}
+		}
+	}
+}
@@ -0,0 +1,281 @@
+
+/**
+ * OcclusionCuller.java - skips groups of shapes that were hidden behind
+ *           other geometry, using GL_ANY_SAMPLES_PASSED queries (vo).
+ *
+ * The groups are the leaves of the Scene's ShapeBVH, so each is a compact
+ * cluster of a few shapes. After the scene is drawn, every group's bounding
+ * box is drawn as a query proxy with color and depth writes off: the query
+ * says whether any of its samples pass the depth test of what was drawn.
+ *
+ * Results are never waited for. At the start of a frame each pending query
+ * is read only if GL_QUERY_RESULT_AVAILABLE; a group keeps its last answer
+ * until its next result arrives, and a group is not queried again while its
+ * query is pending. A group that becomes visible is drawn from the frame
+ * after its result is read. Reported are the fraction of groups skipped and
+ * the readback latency: frames from issuing a query to reading its result.
+ *
+ * 10/17/26 created for the vo visibility option.
+ */
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL20.*;
+import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL32.*;
+import static org.lwjgl.opengl.GL33.*;
+
+import java.io.IOException;
+import java.nio.*;
+
+import org.joml.Matrix4f;
+
+public class OcclusionCuller {
+	// ------------------ class variables ------------------------------
+	private static final int CORNERS = 8; // proxy box vertices
+	// two triangles for each face of a box with corners numbered by bits
+	// x = 1, y = 2, z = 4
+	private static final byte[] BOX_INDEXES = { 0, 2, 3, 0, 3, 1, 4, 5, 7, 4, 7, 6, 0, 1, 5, 0, 5, 4, 2, 6, 7, 2, 7,
+			3, 0, 4, 6, 0, 6, 2, 1, 3, 7, 1, 7, 5 };
+	private static int proxyProgram = -1; // shared by all scenes
+	private static ShaderProgram proxy = null; // null if it failed to build
+	private static int uProjViewScene = -1;
+
+	// -------- accounting since last report; one scene is drawn a frame
+	private static long groupsConsidered = 0;
+	private static long groupsSkipped = 0;
+	private static long resultsRead = 0;
+	private static long latencyFrames = 0;
+	private static long queriesIssued = 0;
+
+	// ------------------ instance variables ----------------------------
+	private ShapeBVH bvh;
+	private int[] query; // per node; 0 for inner nodes
+	private boolean[] pending; // query issued, result not read yet
+	private int[] issuedFrame;
+	private boolean[] visible; // last answer for the group
+	private int frame = 0;
+
+	private int vaoId = -1;
+	private int cornerVBO = -1;
+	private int indexVBO = -1;
+	private FloatBuffer corners = null; // from memory
+	private int cornersVersion = -1; // bvh.boundsVersion of the corners
+	private float[] box = new float[6];
+	private FloatBuffer matrixBuf = null; // from memory
+	private NativeArena memory = NativeArena.pool("OcclusionCuller"); // freed by close
+	private Matrix4f pvs = new Matrix4f();
+
+	// ------------------ constructor ------------------------
+	/**
+	 * Create queries and proxy geometry for the leaves of the hierarchy.
+	 *
+	 * @param bvh
+	 *            ShapeBVH the scene's hierarchy; its leaves are the groups
+	 */
+	public OcclusionCuller(ShapeBVH bvh) {
+		UtilsLWJGL.glError("--->OcclusionCuller"); // clean out old errors
+		this.bvh = bvh;
+		if (proxyProgram == -1) {
+			try {
+				proxyProgram = UtilsLWJGL.makeShaderProgram("occlusionProxy");
+			} catch (IOException iox) {
+				System.err.println("***** occlusionProxy shader construction failed; vo disabled");
+				proxyProgram = 0;
+			}
+			if (proxyProgram != 0) {
+				proxy = ShaderProgram.of(proxyProgram);
+				uProjViewScene = proxy.uniform("projViewScene");
+			}
+		}
+
+		int nNodes = bvh.nodeCount();
+		query = new int[nNodes];
+		pending = new boolean[nNodes];
+		issuedFrame = new int[nNodes];
+		visible = new boolean[nNodes];
+		int nGroups = 0;
+		for (int node = 0; node < nNodes; node++) {
+			visible[node] = true; // until a query says otherwise
+			if (bvh.isLeaf(node)) {
+				query[node] = glGenQueries();
+				nGroups++;
+			}
+		}
+
+		corners = memory.allocFloat(nNodes * CORNERS * 3);
+		matrixBuf = memory.allocFloat(16);
+		NativeArena temp = NativeArena.scoped("OcclusionCuller.build");
+		ByteBuffer indexBuf = temp.alloc(BOX_INDEXES.length);
+		indexBuf.put(BOX_INDEXES).flip();
+
+		vaoId = UtilsLWJGL.genVertexArray();
+		GLState.bindVertexArray(vaoId);
+		cornerVBO = UtilsLWJGL.genBuffer();
+		GLState.bindBuffer(GL_ARRAY_BUFFER, cornerVBO);
+		glBufferData(GL_ARRAY_BUFFER, corners.capacity() * 4L, GL_DYNAMIC_DRAW);
+		int vPosition = proxy == null ? -1 : proxy.attribute("vPosition");
+		if (vPosition >= 0) {
+			GLState.enableVertexAttribArray(vPosition);
+			glVertexAttribPointer(vPosition, 3, GL_FLOAT, false, 0, 0L);
+		}
+		indexVBO = UtilsLWJGL.genBuffer();
+		GLState.bindBuffer(GL_ELEMENT_ARRAY_BUFFER, indexVBO); // VAO state
+		glBufferData(GL_ELEMENT_ARRAY_BUFFER, indexBuf, GL_STATIC_DRAW);
+		GLState.bindBuffer(GL_ARRAY_BUFFER, 0);
+		GLState.bindVertexArray(0);
+		temp.close();
+
+		System.err.println("Occlusion culling: " + nGroups + " groups");
+		UtilsLWJGL.glError("<---OcclusionCuller"); // check for glerrors
+	}
+
+	// ------------------------ close -----------------------------
+	/**
+	 * Free corners and matrixBuf; the culler must not be used afterwards.
+	 */
+	public void close() {
+		memory.close();
+	}
+
+	// ------------------------ delete -----------------------------
+	/**
+	 * Free the GL objects and buffers when the scene replaces this culler.
+	 */
+	public void delete() {
+		close();
+		for (int q : query)
+			if (q != 0)
+				glDeleteQueries(q);
+		GLState.deleteBuffer(cornerVBO);
+		GLState.deleteBuffer(indexVBO);
+		GLState.deleteVertexArray(vaoId);
+	}
+
+	// ------------------------ isFor -----------------------------
+	/**
+	 * True if this culler's groups are the leaves of the given hierarchy.
+	 */
+	public boolean isFor(ShapeBVH tree) {
+		return bvh == tree;
+	}
+
+	// ------------------------ readResults -----------------------------
+	/**
+	 * Start of a frame: collect the query results that are available
+	 * without waiting.
+	 */
+	public void readResults() {
+		frame++;
+		for (int node = 0; node < query.length; node++) {
+			if (!pending[node])
+				continue;
+			if (glGetQueryObjecti(query[node], GL_QUERY_RESULT_AVAILABLE) == GL_FALSE)
+				continue;
+			visible[node] = glGetQueryObjecti(query[node], GL_QUERY_RESULT) != 0;
+			pending[node] = false;
+			resultsRead++;
+			latencyFrames += frame - issuedFrame[node];
+		}
+		for (int node = 0; node < query.length; node++) {
+			if (query[node] == 0 || !inFrustum(node))
+				continue;
+			groupsConsidered++;
+			if (!visible[node])
+				groupsSkipped++;
+		}
+	}
+
+	// ------------------------ isVisible -----------------------------
+	/**
+	 * True unless the shape's group was last found hidden.
+	 */
+	public boolean isVisible(Shape3D shape) {
+		return shape.bvhLeaf < 0 || visible[shape.bvhLeaf];
+	}
+
+	// ------------------------ issueQueries -----------------------------
+	/**
+	 * After the scene is drawn: draw the box of every group without a
+	 * pending query inside a GL_ANY_SAMPLES_PASSED query.
+	 */
+	public void issueQueries() {
+		if (proxyProgram == 0)
+			return;
+		if (cornersVersion != bvh.boundsVersion())
+			uploadCorners();
+
+		GLState.useProgram(proxyProgram);
+		proxy.setMatrix4f(uProjViewScene, SceneManager.projViewScene(pvs).get(matrixBuf));
+		glColorMask(false, false, false, false);
+		glDepthMask(false);
+		GLState.bindVertexArray(vaoId);
+		for (int node = 0; node < query.length; node++) {
+			if (query[node] == 0 || pending[node])
+				continue;
+			if (!inFrustum(node)) {
+				visible[node] = true; // unknown when it comes back into view
+				continue;
+			}
+			glBeginQuery(GL_ANY_SAMPLES_PASSED, query[node]);
+			glDrawElementsBaseVertex(GL_TRIANGLES, BOX_INDEXES.length, GL_UNSIGNED_BYTE, 0L, node * CORNERS);
+			glEndQuery(GL_ANY_SAMPLES_PASSED);
+			pending[node] = true;
+			issuedFrame[node] = frame;
+			queriesIssued++;
+		}
+		GLState.bindVertexArray(0);
+		glDepthMask(true);
+		glColorMask(true, true, true, true);
+		GLState.useProgram(LWJGL.shaderProgram);
+	}
+
+	// ------------------------ report -----------------------------
+	/**
+	 * Log the skipped fraction of groups, the query readback latency and
+	 * the queries per frame over the last report interval and reset them.
+	 */
+	public static void report(int frames) {
+		float n = frames == 0 ? 1 : frames;
+		float skipped = groupsConsidered == 0 ? 0 : 100.0f * groupsSkipped / groupsConsidered;
+		float latency = resultsRead == 0 ? 0 : (float) latencyFrames / resultsRead;
+		P3.log(String.format("Occlusion: groups skipped %5.1f%%    readback latency (frames): %5.2f    queries/frame: %8.1f",
+				skipped, latency, queriesIssued / n));
+		groupsConsidered = 0;
+		groupsSkipped = 0;
+		resultsRead = 0;
+		latencyFrames = 0;
+		queriesIssued = 0;
+	}
+
+	// ++++++++++++++++++++ private methods +++++++++++++++++++++++++++++++
+	// ---------------------- inFrustum -----------------------------------
+	/**
+	 * With frustum culling (vf) on, groups outside the frustum are neither
+	 * drawn nor queried.
+	 */
+	private boolean inFrustum(int node) {
+		return !Shape3D.useFrustumCulling || bvh.leafInFrustum(node);
+	}
+
+	// ---------------------- uploadCorners -----------------------------------
+	/**
+	 * Write the 8 corners of every leaf box into the proxy vertex buffer.
+	 */
+	private void uploadCorners() {
+		for (int node = 0; node < query.length; node++) {
+			if (query[node] == 0)
+				continue;
+			bvh.bounds(node, box);
+			int at = node * CORNERS * 3;
+			for (int c = 0; c < CORNERS; c++) {
+				corners.put(at++, box[(c & 1) == 0 ? 0 : 3]);
+				corners.put(at++, box[(c & 2) == 0 ? 1 : 4]);
+				corners.put(at++, box[(c & 4) == 0 ? 2 : 5]);
+			}
+		}
+		GLState.bindBuffer(GL_ARRAY_BUFFER, cornerVBO);
+		glBufferSubData(GL_ARRAY_BUFFER, 0, corners);
+		GLState.bindBuffer(GL_ARRAY_BUFFER, 0);
+		cornersVersion = bvh.boundsVersion();
+	}
+}
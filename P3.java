@@ -6,6 +6,13 @@
  * @author rdb
  * 11/12/15 version 1.0 derived from previous demos.
  * 11/27/16 version 1.1 edited to conform to LWJGL 3.1
+ * 10/17/26 close the scene manager after the render loop and list the
+ *          native memory still live.
+ * 10/17/26 frame loop heap allocation sampled per report interval (za); a
+ *          batch run over budget ends early and exits with status 1.
+ * 10/17/26 frames timed with nanoTime, and on the GPU with timer queries;
+ *          each report adds p50/p90/p99/max frame times (FrameTimer).
+ * 10/17/26 the shader program is compiled with SceneManager.shaderVersion.
  *             
  * This program makes use of code from demos found at lwjgl.org accessed as
  * lwjgl3-demo-master and downloaded in late August 2015. It also uses a
@@ -38,9 +45,11 @@ public class P3
     //-------- timing information
     private static int   redrawCount = -1;
     private static float redrawSum   = 0.0f;
-    private static long  lastReport;     // last time average time reported
+    private static long  lastReport;     // last time average time reported (ns)
     private static long  reportInterval = 3000; // 3 seconds
     private static float reportIntervalSecs = reportInterval / 1000.0f;
+    private static long  reportIntervalNanos = reportInterval * 1000000L;
+    private static FrameTimer frameTimer;   // percentiles of frame times
     private static int   maxBatchReports = 10;  // max reports in batch mode
     private static int   numReports = 0;        // # reports generated
  
@@ -80,8 +89,12 @@ public class P3
         
         try 
         {
-            LWJGL.shaderProgram = UtilsLWJGL.makeShaderProgram( "evalDemo" );
-            glUseProgram( LWJGL.shaderProgram );
+            LWJGL.shaderProgram = UtilsLWJGL.makeShaderProgram( 
+                                             "evalDemo.vsh", "evalDemo.fsh",
+                                             SceneManager.shaderVersion(),
+                                             SceneManager.shaderDefines() );
+            GLState.useProgram( LWJGL.shaderProgram );
+            LWJGL.program = ShaderProgram.of( LWJGL.shaderProgram );
         } 
         catch ( IOException iox )  
         {
@@ -90,9 +103,14 @@ public class P3
         }
         
         sceneMgr = new SceneManager();
+        frameTimer = new FrameTimer();
         setupKeyHandler();
         
         renderLoop();
+        
+        frameTimer.delete();
+        sceneMgr.close();
+        NativeArena.report( -1 ); // anything still live is a leak
             
         // Clean up GLFW stuff
         glfwFreeCallbacks( window );
@@ -150,33 +168,46 @@ public class P3
     //------------------------ redraw() ----------------------------
     void redraw()
     {
-        long start = System.currentTimeMillis();
+        long start = System.nanoTime();
+        frameTimer.begin( start );
         sceneMgr.redraw();
         
         glFlush();
-        long end = System.currentTimeMillis();
-        float redrawSecs = ( end - start ) / 1000.0f;
+        long end = System.nanoTime();
+        frameTimer.end( start, end );
+        float redrawSecs = ( end - start ) / 1.0e9f;
         if ( redrawCount == -1 )
         {
             log( "Initial redraw: " + redrawSecs );
             redrawCount = 0;   // next redraw we'll start counting
             lastReport = end;
+            frameTimer.reset();
+            AllocationMeter.start();
         }
         else
         {
             redrawCount++;
             redrawSum += redrawSecs; 
         }
-        if ( end - lastReport > reportInterval )
+        if ( end - lastReport > reportIntervalNanos )
         {
+            AllocationMeter.sample();  // before the report allocates
             float avg = redrawSum / redrawCount;
             float frameRate = redrawCount / reportIntervalSecs;
             log( String.format( "Average redraw (sec): %6.4f    %8.3f FPS", 
                                                  avg, frameRate ));
+            frameTimer.report();
+            sceneMgr.report( redrawCount );
             lastReport = end;
             redrawCount = 0;
             redrawSum = 0;
             numReports++;
+            if ( batchRun && AllocationMeter.failed() )
+            {
+                log( "========= batch termination: allocation budget exceeded ==" );
+                glfwSetWindowShouldClose( window, true );
+            }
+            AllocationMeter.start();
         } 
         if ( batchRun && numReports >= maxBatchReports )
         {
@@ -267,5 +298,7 @@ public class P3
             // close the logging file; esp. important if program crashes.
             logger.close();
         }
+        if ( batchRun && AllocationMeter.failed() )
+            System.exit( 1 );
     }
 }
@@ -0,0 +1,143 @@
+
+/**
+ * PersistentModelRing.java - streams per-frame model matrices through a
+ *           persistently and coherently mapped, triple-buffered buffer (up).
+ *
+ * The buffer holds 3 segments of one mat4 per object slot. Each frame uses
+ * the next segment: Shape3D.redraw writes its model matrix straight into the
+ * mapped memory and draws with baseInstance = segment start + slot, so the
+ * iModel instance attribute (divisor 1) fetches that matrix; no
+ * glUniformMatrix4fv is issued. A fence placed after a frame's draws guards
+ * its segment; the segment is reused three frames later only after
+ * glClientWaitSync says the GPU is done with it. Time spent waiting is the
+ * stall that is reported.
+ *
+ * Needs glBufferStorage (OpenGL 4.4); on Linux and Mac set GLVERSION=4.4.
+ *
+ * 10/17/26 created for the up model-upload option.
+ */
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL20.*;
+import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL32.*;
+import static org.lwjgl.opengl.GL44.*;
+
+import java.nio.*;
+
+
+public class PersistentModelRing {
+	// ------------------ class variables ------------------------------
+	static final int SEGMENTS = 3; // triple buffered
+	private static final int MATRIX_FLOATS = 16;
+	private static final long WAIT_TIMEOUT = 1000000000L; // 1 sec in nanos
+
+	// ------------------ instance variables ----------------------------
+	private int capacity; // object slots per segment
+	private int ringVBO = -1;
+	private FloatBuffer mapped = null; // persistently mapped; never unmapped
+	private long[] fences = new long[SEGMENTS];
+	private int segment = 0; // segment being written this frame
+	private int iModel = -1;
+
+	// -------- stall accounting since last report
+	private long stallNanos = 0;
+	private int stalledFrames = 0;
+
+	// ------------------ constructor ------------------------
+	/**
+	 * Allocate and map the ring.
+	 *
+	 * @param capacity
+	 *            int number of object slots in each segment
+	 */
+	public PersistentModelRing(int capacity) {
+		UtilsLWJGL.glError("--->PersistentModelRing"); // clean out old errors
+		this.capacity = capacity;
+		iModel = LWJGL.program.attribute("iModel");
+
+		long bytes = (long) SEGMENTS * capacity * MATRIX_FLOATS * 4;
+		int flags = GL_MAP_WRITE_BIT | GL_MAP_PERSISTENT_BIT | GL_MAP_COHERENT_BIT;
+		ringVBO = UtilsLWJGL.genBuffer();
+		GLState.bindBuffer(GL_ARRAY_BUFFER, ringVBO);
+		glBufferStorage(GL_ARRAY_BUFFER, bytes, flags);
+		ByteBuffer map = glMapBufferRange(GL_ARRAY_BUFFER, 0, bytes, flags);
+		mapped = map.order(ByteOrder.nativeOrder()).asFloatBuffer();
+		GLState.bindBuffer(GL_ARRAY_BUFFER, 0);
+
+		InstancedRenderer.setInstanceFlag(LWJGL.shaderProgram);
+		System.err.println("Persistent model ring: " + SEGMENTS + " x " + capacity + " matrices, " + bytes + " bytes");
+		UtilsLWJGL.glError("<---PersistentModelRing"); // check for glerrors
+	}
+
+	// ------------------------ describe -----------------------------
+	/**
+	 * Point the iModel attribute of the given VAO at the ring.
+	 */
+	public void describe(int vaoId) {
+		GLState.bindVertexArray(vaoId);
+		GLState.bindBuffer(GL_ARRAY_BUFFER, ringVBO);
+		InstancedRenderer.describeModelAttrib(iModel, MATRIX_FLOATS * 4);
+		GLState.bindBuffer(GL_ARRAY_BUFFER, 0);
+		GLState.bindVertexArray(0);
+	}
+
+	// ------------------------ holds -----------------------------
+	/**
+	 * True if the slot fits in the ring.
+	 */
+	public boolean holds(int slot) {
+		return slot >= 0 && slot < capacity;
+	}
+
+	// ------------------------ beginFrame -----------------------------
+	/**
+	 * Wait until the GPU has finished with the segment this frame will write.
+	 */
+	public void beginFrame() {
+		long fence = fences[segment];
+		if (fence == 0)
+			return;
+		long start = System.nanoTime();
+		int status = glClientWaitSync(fence, 0, 0);
+		if (status == GL_TIMEOUT_EXPIRED) {
+			stalledFrames++;
+			do
+				status = glClientWaitSync(fence, GL_SYNC_FLUSH_COMMANDS_BIT, WAIT_TIMEOUT);
+			while (status == GL_TIMEOUT_EXPIRED);
+		}
+		stallNanos += System.nanoTime() - start;
+		glDeleteSync(fence);
+		fences[segment] = 0;
+	}
+
+	// ------------------------ put -----------------------------
+	/**
+	 * Write a shape's model matrix into this frame's segment and return the
+	 * baseInstance that selects it.
+	 */
+	public int put(int slot, Shape3D shape) {
+		int instance = segment * capacity + slot;
+		shape.getModelMatrix(instance * MATRIX_FLOATS, mapped);
+		return instance;
+	}
+
+	// ------------------------ endFrame -----------------------------
+	/**
+	 * Fence the draws that read this frame's segment and move to the next.
+	 */
+	public void endFrame() {
+		fences[segment] = glFenceSync(GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+		segment = (segment + 1) % SEGMENTS;
+	}
+
+	// ------------------------ report -----------------------------
+	/**
+	 * Log fence stall time over the last report interval and reset it.
+	 */
+	public void report(int frames) {
+		float msPerFrame = frames == 0 ? 0 : stallNanos / 1.0e6f / frames;
+		P3.log(String.format("Fence stall (ms/frame): %6.4f    stalled frames: %d", msPerFrame, stalledFrames));
+		stallNanos = 0;
+		stalledFrames = 0;
+	}
+}
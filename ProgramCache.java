@@ -0,0 +1,186 @@
+
+/**
+ * ProgramCache.java - an on-disk cache of linked shader program binaries
+ *           (glGetProgramBinary / glProgramBinary), used by
+ *           UtilsLWJGL.makeShaderProgram.
+ *
+ * A program is cached in a file named by the SHA-256 of its shader sources,
+ * #version override and #defines, and the GL vendor, renderer and version
+ * strings, so a change to any of them is a new entry. The file holds the
+ * binary format then the binary. The driver may still refuse a binary
+ * (e.g. after a driver update with the same version string); then the link
+ * status is false, the entry is deleted and the program compiled from
+ * source.
+ *
+ * The directory is the SHADERCACHE environment variable, or shadercache in
+ * the working directory; SHADERCACHE=off disables the cache. Binaries need
+ * OpenGL 4.1 or ARB_get_program_binary and at least one binary format.
+ *
+ * 10/17/26 created to cut shader build time at startup.
+ */
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL20.*;
+import static org.lwjgl.opengl.GL41.*;
+
+import java.io.*;
+import java.nio.*;
+import java.security.*;
+
+import org.lwjgl.opengl.GL;
+import org.lwjgl.opengl.GLCapabilities;
+import org.lwjgl.system.MemoryUtil;
+
+public class ProgramCache {
+	// ------------------ class variables ------------------------------
+	static final String DIR_ENV = "SHADERCACHE";
+	private static File dir = null; // null until first used
+
+	// ------------------------ enabled -----------------------------
+	/**
+	 * True if program binaries can be cached with this context.
+	 */
+	static boolean enabled() {
+		String name = System.getenv(DIR_ENV);
+		if ("off".equals(name))
+			return false;
+		GLCapabilities caps = GL.getCapabilities();
+		if (!caps.OpenGL41 && !caps.GL_ARB_get_program_binary)
+			return false;
+		if (glGetInteger(GL_NUM_PROGRAM_BINARY_FORMATS) == 0)
+			return false;
+		if (dir == null) {
+			dir = new File(name == null ? "shadercache" : name);
+			dir.mkdirs();
+		}
+		return dir.isDirectory();
+	}
+
+	// ------------------------ key -----------------------------
+	/**
+	 * The cache key for a program built from these shaders on this GL.
+	 */
+	static String key(String vertexShader, String fragmentShader, String version, String[] defines)
+			throws IOException {
+		MessageDigest md;
+		try {
+			md = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException nsa) {
+			throw new IOException(nsa);
+		}
+		digestResource(md, vertexShader);
+		digestResource(md, fragmentShader);
+		digestString(md, version == null ? "" : version);
+		if (defines != null)
+			for (String name : defines)
+				digestString(md, name);
+		digestString(md, glGetString(GL_VENDOR));
+		digestString(md, glGetString(GL_RENDERER));
+		digestString(md, glGetString(GL_VERSION));
+
+		StringBuilder hex = new StringBuilder();
+		for (byte b : md.digest())
+			hex.append(String.format("%02x", b));
+		return hex.toString();
+	}
+
+	// ------------------------ load -----------------------------
+	/**
+	 * A linked program from the cached binary, or 0 if there is none or the
+	 * driver refuses it.
+	 */
+	static int load(String key) {
+		File file = new File(dir, key + ".bin");
+		if (!file.isFile())
+			return 0;
+		int format;
+		byte[] binary;
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			try {
+				format = in.readInt();
+				binary = new byte[in.readInt()];
+				in.readFully(binary);
+			} finally {
+				in.close();
+			}
+		} catch (IOException iox) {
+			System.err.println("***** can't read " + file + ": " + iox.getMessage());
+			return 0;
+		}
+
+		ByteBuffer buf = MemoryUtil.memAlloc(binary.length);
+		buf.put(binary).flip();
+		int program = glCreateProgram();
+		glProgramBinary(program, format, buf);
+		MemoryUtil.memFree(buf);
+		if (glGetProgrami(program, GL_LINK_STATUS) == GL_FALSE) {
+			System.err.println("***** cached program binary refused by the driver; compiling from source");
+			glDeleteProgram(program);
+			file.delete();
+			return 0;
+		}
+		return program;
+	}
+
+	// ------------------------ store -----------------------------
+	/**
+	 * Save the binary of a linked program. The program should have been
+	 * linked with GL_PROGRAM_BINARY_RETRIEVABLE_HINT set. Returns the bytes
+	 * written, 0 if none.
+	 */
+	static int store(String key, int program) {
+		int length = glGetProgrami(program, GL_PROGRAM_BINARY_LENGTH);
+		if (length == 0)
+			return 0;
+		ByteBuffer buf = MemoryUtil.memAlloc(length);
+		IntBuffer written = MemoryUtil.memAllocInt(1);
+		IntBuffer format = MemoryUtil.memAllocInt(1);
+		glGetProgramBinary(program, written, format, buf);
+		length = written.get(0);
+		byte[] binary = new byte[length];
+		buf.get(binary, 0, length);
+		int binaryFormat = format.get(0);
+		MemoryUtil.memFree(buf);
+		MemoryUtil.memFree(written);
+		MemoryUtil.memFree(format);
+
+		File file = new File(dir, key + ".bin");
+		File temp = new File(dir, key + ".tmp"); // never leave a partial entry
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+			try {
+				out.writeInt(binaryFormat);
+				out.writeInt(length);
+				out.write(binary);
+			} finally {
+				out.close();
+			}
+			if (!temp.renameTo(file)) {
+				temp.delete();
+				return 0;
+			}
+		} catch (IOException iox) {
+			System.err.println("***** can't write " + file + ": " + iox.getMessage());
+			temp.delete();
+			return 0;
+		}
+		return length;
+	}
+
+	// ++++++++++++++++++++ private methods +++++++++++++++++++++++++++++++
+	private static void digestResource(MessageDigest md, String resource) throws IOException {
+		ByteBuffer source = UtilsLWJGL.ioResourceToByteBuffer(resource, 8192);
+		md.update(source);
+		MemoryUtil.memFree(source);
+		md.update((byte) 0);
+	}
+
+	private static void digestString(MessageDigest md, String s) {
+		try {
+			md.update(s.getBytes("UTF-8"));
+		} catch (UnsupportedEncodingException uee) {
+			md.update(s.getBytes());
+		}
+		md.update((byte) 0);
+	}
+}
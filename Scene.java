@@ -7,6 +7,13 @@
  *           
  * @author rdb
  * Created 11/03/15
+ * 10/17/26 Model matrices are brought up to date by one
+ *          TransformStore.updateDirty pass at the start of a frame.
+ * 10/17/26 close() frees the native buffers of the renderers and shapes.
+ * 10/17/26 redraw allocates nothing: indexed loops, no iterators.
+ * 10/17/26 op: shapes recorded on worker threads, replayed by a
+ *          CommandRecorder.
+ * 10/17/26 setRotation takes the rotation from a Simulation snapshot (st).
  */
 import static org.lwjgl.opengl.GL20.glGetUniformLocation;
 import static org.lwjgl.opengl.GL20.glUniformMatrix4fv;
@@ -24,6 +31,14 @@ public class Scene
     protected Matrix4f           sceneTransform;
     protected int                shaderProgram;  // shader program id
     private   boolean            sceneTransformChanged = true;
+    private   InstancedRenderer  instancer = null; // built on first di redraw
+    private   MultiDrawRenderer  multiDraw = null; // built on first dm redraw
+    private   StaticBatchRenderer staticBatch = null; // see buildStaticBatch
+    private   ArrayList<Shape3D> drawOrder = null; // shared modes: by VAO
+    private   DrawList           drawList = null;  // os: sorted by GL state
+    private   ShapeBVH           bvh = null;       // vf, vo: shape groups
+    private   OcclusionCuller    occlusion = null; // vo
+    private   CommandRecorder    recorder = null;  // op
 
     
     //------- transformation parameters
@@ -51,6 +66,12 @@ public class Scene
     public void addShape( Shape3D shape )
     {
         shapes.add( shape );
+        instancer = null;   // groups must be rebuilt
+        multiDraw = null;   // command buffer must be recompiled
+        staticBatch = null; // batch must be re-baked
+        drawOrder = null;
+        drawList = null;
+        bvh = null;         // occlusion groups follow the new tree
     }
     //------------------- redraw( ) --------------------------------
     /**
@@ -60,8 +81,188 @@ public class Scene
     {
         if ( sceneTransformChanged )
             updateSceneTransform();
-        for ( Shape3D shape: shapes )
-            shape.redraw();
+        Shape3D.transforms.updateDirty();   // one pass over moved shapes
+        if ( Shape3D.useInstancing )
+        {
+            if ( instancer == null )
+                instancer = new InstancedRenderer( shapes );
+            instancer.redraw();
+        }
+        else if ( Shape3D.useMultiDraw )
+        {
+            if ( multiDraw == null )
+                multiDraw = new MultiDrawRenderer( shapes );
+            multiDraw.redraw();
+        }
+        else if ( Shape3D.useStaticBatch )
+        {
+            if ( staticBatch == null )
+                buildStaticBatch();
+            staticBatch.redraw();
+        }
+        else
+        {
+            if ( Shape3D.useFrustumCulling )
+                bvh().cull();
+            else if ( Shape3D.useOcclusionCulling )
+                bvh().refitMoved();
+            if ( Shape3D.useOcclusionCulling )
+                occlusion().readResults();
+            if ( Shape3D.modelStore != null )
+                Shape3D.modelStore.update( shapes );
+            if ( Shape3D.modelRing != null )
+                Shape3D.modelRing.beginFrame();
+            if ( Shape3D.useSortedDrawList )
+                drawList().submit( this );
+            else if ( Shape3D.useCommandStreams )
+            {
+                if ( recorder == null )
+                    recorder = new CommandRecorder();
+                recorder.submit( this, drawOrder() );
+            }
+            else
+            {
+                ArrayList<Shape3D> order = drawOrder();
+                for ( int i = 0; i < order.size(); i++ )
+                    if ( isVisible( order.get( i ) ) )
+                        order.get( i ).redraw();
+                Shape3D.endRedraws();
+            }
+            if ( Shape3D.modelRing != null )
+                Shape3D.modelRing.endFrame();
+            if ( occlusion != null )
+                occlusion.issueQueries();   // against this frame's depth
+        }
+        Shape3D.transforms.endFrame();   // every renderer saw what moved
+    }
+    //------------------- isVisible( Shape3D ) --------------------------------
+    /**
+     * False if frustum (vf) or occlusion (vo) culling removed the shape
+     * this frame.
+     */
+    boolean isVisible( Shape3D shape )
+    {
+        if ( Shape3D.useFrustumCulling && !bvh.isVisible( shape ) )
+            return false;
+        return occlusion == null || occlusion.isVisible( shape );
+    }
+    //------------------- drawOrder( ) --------------------------------
+    /**
+     * Order in which to redraw shapes one by one. In the shared modes the
+     * shapes are grouped by VAO so each layout's VAO is bound once a frame;
+     * otherwise it is the order they were added.
+     */
+    private ArrayList<Shape3D> drawOrder()
+    {
+        if ( !Shape3D.sharedBuffers() )
+            return shapes;
+        if ( drawOrder == null )
+        {
+            drawOrder = new ArrayList<Shape3D>( shapes );
+            Collections.sort( drawOrder, new Comparator<Shape3D>()
+            {
+                public int compare( Shape3D a, Shape3D b )
+                {
+                    return Integer.compare( a.getVaoId(), b.getVaoId() );
+                }
+            });
+        }
+        return drawOrder;
+    }
+    //------------------- drawList( ) --------------------------------
+    /**
+     * The compiled draw list (os); recompiled if a shape's GL resources
+     * changed since it was built.
+     */
+    private DrawList drawList()
+    {
+        if ( drawList == null || !drawList.isCurrent() )
+            drawList = new DrawList( shapes );
+        return drawList;
+    }
+    //------------------- bvh( ) --------------------------------
+    /**
+     * The bounding volume hierarchy for culling (vf); rebuilt if a shape's
+     * GL data changed since it was built.
+     */
+    private ShapeBVH bvh()
+    {
+        if ( bvh == null || !bvh.isCurrent() )
+            bvh = new ShapeBVH( shapes );
+        return bvh;
+    }
+    //------------------- occlusion( ) --------------------------------
+    /**
+     * The occlusion culler (vo) for the current hierarchy's groups.
+     */
+    private OcclusionCuller occlusion()
+    {
+        if ( occlusion == null || !occlusion.isFor( bvh() ) )
+        {
+            if ( occlusion != null )
+                occlusion.delete();
+            occlusion = new OcclusionCuller( bvh() );
+        }
+        return occlusion;
+    }
+    //------------------- buildRenderer( ) --------------------------------
+    /**
+     * Build the scene-level renderer of the current draw option (di, dm,
+     * db), if any, now rather than on the first redraw. Called once the
+     * scene is complete.
+     */
+    public void buildRenderer()
+    {
+        if ( Shape3D.useInstancing )
+            instancer = new InstancedRenderer( shapes );
+        else if ( Shape3D.useMultiDraw )
+            multiDraw = new MultiDrawRenderer( shapes );
+        else if ( Shape3D.useStaticBatch )
+            buildStaticBatch();
+        else if ( Shape3D.useOcclusionCulling )
+            occlusion();
+        else if ( Shape3D.useFrustumCulling )
+            bvh();
+    }
+    //------------------- buildStaticBatch( ) --------------------------------
+    /**
+     * Bake all shapes into one static batch (db). Called once the scene is
+     * complete so the build can be timed apart from the first redraw.
+     */
+    public void buildStaticBatch()
+    {
+        staticBatch = new StaticBatchRenderer( shapes );
+    }
+    //------------------- close( ) --------------------------------
+    /**
+     * Free the native buffers of the scene's renderers and shapes; the
+     * scene must not be drawn afterwards.
+     */
+    public void close()
+    {
+        if ( instancer != null )
+            instancer.close();
+        if ( multiDraw != null )
+            multiDraw.close();
+        if ( staticBatch != null )
+            staticBatch.close();
+        if ( occlusion != null )
+            occlusion.close();
+        if ( recorder != null )
+            recorder.close();
+        for ( Shape3D shape : shapes )
+            shape.close();
+    }
+    //------------------ setRotation( x, y, z ) ---------------------------
+    /**
+     * Set all three rotations at once, in radians.
+     */
+    public void setRotation( float x, float y, float z )
+    {
+        xRadians = x;
+        yRadians = y;
+        zRadians = z;
+        sceneTransformChanged = true;
     }
     //------------------ setRotateX( angle ) ---------------------------
     /**
@@ -0,0 +1,154 @@
+
+/**
+ * SceneGenerator.java - the CPU side of makeScene for kp: random box
+ *           parameters and their model matrices, generated in fixed size
+ *           chunks on a ForkJoinPool.
+ *
+ * Each chunk has its own SplittableRandom, split from one root generator in
+ * chunk order before any work starts, and each box's model matrix depends
+ * only on its own parameters. So the arrays are bit-identical whatever the
+ * number of threads or the order the chunks run in. Only the creation of
+ * the Box objects, which makes GL calls, is left to the context thread.
+ *
+ * 10/17/26 created for the kp construction option.
+ */
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.joml.Matrix4f;
+
+public class SceneGenerator {
+	// ------------------ class variables ------------------------------
+	static final int CHUNK = 4096; // boxes per task; fixes the random streams
+	static final int MODEL_FLOATS = 16;
+
+	// the ranges makeScene has always used
+	private static final float MIN_SIZE = 0.05f;
+	private static final float DELTA_SIZE = 0.08f;
+	private static final float MIN_XYZ = -1;
+	private static final float DELTA_XYZ = 1.9f;
+
+	// ------------------ instance variables ----------------------------
+	final int n;
+	final boolean[] faceColors; // Box ctor args
+	final boolean[] faceNormals;
+	final float[] sizes;
+	final float[] locations; // x, y, z per box
+	final float[] angles; // degrees about y
+	final float[] models; // 16 per box, column major as Matrix4f.get
+
+	private final SplittableRandom[] chunkRandoms;
+
+	// ------------------ constructor ------------------------
+	/**
+	 * Allocate the arrays for n boxes and split one stream per chunk from
+	 * seed.
+	 */
+	SceneGenerator(int n, long seed) {
+		this.n = n;
+		faceColors = new boolean[n];
+		faceNormals = new boolean[n];
+		sizes = new float[n];
+		locations = new float[3 * n];
+		angles = new float[n];
+		models = new float[MODEL_FLOATS * n];
+		SplittableRandom root = new SplittableRandom(seed);
+		chunkRandoms = new SplittableRandom[(n + CHUNK - 1) / CHUNK];
+		for (int c = 0; c < chunkRandoms.length; c++)
+			chunkRandoms[c] = root.split();
+	}
+
+	// ------------------------ generate -----------------------------
+	/**
+	 * Fill the arrays; with pool null, chunk by chunk on this thread.
+	 */
+	void generate(ForkJoinPool pool) {
+		if (pool == null)
+			new ChunkTask(this, 0, chunkRandoms.length).compute();
+		else
+			pool.invoke(new ChunkTask(this, 0, chunkRandoms.length));
+	}
+
+	// ------------------------ sameAs -----------------------------
+	/**
+	 * True if every generated value matches bit for bit.
+	 */
+	boolean sameAs(SceneGenerator other) {
+		return n == other.n && Arrays.equals(faceColors, other.faceColors)
+				&& Arrays.equals(faceNormals, other.faceNormals) && Arrays.equals(sizes, other.sizes)
+				&& Arrays.equals(locations, other.locations) && Arrays.equals(angles, other.angles)
+				&& Arrays.equals(models, other.models);
+	}
+
+	// ------------------------ makeBox -----------------------------
+	/**
+	 * Box i, with its precomputed model matrix. GL thread only.
+	 */
+	Box makeBox(int i) {
+		Box box = new Box(faceColors[i], faceNormals[i]);
+		box.setSize(sizes[i], sizes[i], sizes[i]);
+		box.setLocation(locations[3 * i], locations[3 * i + 1], locations[3 * i + 2]);
+		box.setRotate(angles[i], 0, 1, 0);
+		box.setModelMatrix(models, MODEL_FLOATS * i);
+		return box;
+	}
+
+	// ++++++++++++++++++++ private methods +++++++++++++++++++++++++++++++
+	// ------------------------ fillChunk -----------------------------
+	/**
+	 * Parameters, in the order makeScene draws them, then the model matrix
+	 * as Shape3D.updateModelMatrix computes it.
+	 */
+	private void fillChunk(int c) {
+		SplittableRandom rng = chunkRandoms[c];
+		Matrix4f m = new Matrix4f();
+		int end = Math.min(n, (c + 1) * CHUNK);
+		for (int i = c * CHUNK; i < end; i++) {
+			faceColors[i] = rng.nextBoolean();
+			faceNormals[i] = rng.nextBoolean();
+			float size = MIN_SIZE + nextFloat(rng) * DELTA_SIZE;
+			float x = MIN_XYZ + nextFloat(rng) * DELTA_XYZ;
+			float y = MIN_XYZ + nextFloat(rng) * DELTA_XYZ;
+			float z = MIN_XYZ + nextFloat(rng) * DELTA_XYZ;
+			float angle = nextFloat(rng) * 360;
+			sizes[i] = size;
+			locations[3 * i] = x;
+			locations[3 * i + 1] = y;
+			locations[3 * i + 2] = z;
+			angles[i] = angle;
+			m.identity().translate(x, y, z).rotate(angle, 0, 1, 0).scale(size, size, size);
+			m.get(models, MODEL_FLOATS * i);
+		}
+	}
+
+	/**
+	 * A float in [0, 1) from the top 24 bits, as java.util.Random does.
+	 */
+	private static float nextFloat(SplittableRandom rng) {
+		return (rng.nextInt() >>> 8) * 0x1.0p-24f;
+	}
+
+	// ---------------- a range of chunks ------------------------------
+	private static class ChunkTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final SceneGenerator gen;
+		private final int from, to;
+
+		ChunkTask(SceneGenerator gen, int from, int to) {
+			this.gen = gen;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > 1 && getPool() != null) {
+				int mid = (from + to) >>> 1;
+				invokeAll(new ChunkTask(gen, from, mid), new ChunkTask(gen, mid, to));
+			} else
+				for (int c = from; c < to; c++)
+					gen.fillChunk(c);
+		}
+	}
+}
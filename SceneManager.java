@@ -15,26 +15,34 @@
  * Created 11/12/15 from TextureDemo.SceneManager.
  * 11/27/16 rdb: edit to conform to LWJGL 3.1
  * 12/28/15 rdb: convert from BufferUtils to MemoryUtil
+ * 10/17/26 native buffers come from NativeArenas and are freed by close();
+ *          finalize removed.
+ * 10/17/26 za option: heap allocation of the frame loop checked against a
+ *          budget by AllocationMeter.
+ * 10/17/26 wm option: every shape moves each frame (Animator).
+ * 10/17/26 op option: draws recorded on worker threads (CommandRecorder).
+ * 10/17/26 st option: scene state and input on a Simulation thread; the
+ *          render thread applies its latest snapshot.
+ * 10/17/26 shaderVersion(): the us shader is compiled as GLSL 430 core.
  */
 
 import static org.lwjgl.glfw.GLFW.*;
 
 import static org.lwjgl.glfw.GLFW.glfwSetWindowShouldClose;
 import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL31.GL_PRIMITIVE_RESTART;
 
-import static org.lwjgl.opengl.GL20.glGetUniformLocation;
-import static org.lwjgl.opengl.GL20.glUniformMatrix4fv;
-import static org.lwjgl.opengl.GL20.glUniform1f;
 
 import org.joml.Matrix4f;
 import org.joml.Vector3f;
-import org.lwjgl.system.MemoryUtil;
+import org.lwjgl.opengl.GL;
 import org.lwjgl.glfw.GLFW;
 import org.lwjgl.glfw.GLFWErrorCallback;
 import org.lwjgl.glfw.GLFWKeyCallback;
 
 import java.nio.FloatBuffer;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 import java.io.*;
 import java.nio.*;
 
@@ -51,13 +59,55 @@ public class SceneManager {
 	// uj unshared buffers but position/normal data joined in 1 buffer
 	// ua unshared buffers with position and normal in separate buffers
 	// d = draw mode; options: a glDrawArrays, e glDrawElements
+	// i instanced: one draw per group of shapes sharing a mesh;
+	// combine with a or e, e.g. "bsa.di.de."
+	// m whole scene in one glMultiDrawElementsIndirect (GL 4.3)
+	// b static batch: all shapes pre-transformed into one buffer
+	// s triangle strips; combine with a or e, e.g. "bsa.de.ds."
+	// (primitive restart between strips with e; not with i, m, b)
 	// m = PSV matrix calculation; options: c cpu, g gpu
 	// a = vertex attribute order: options b blocked, i interleaved
 	// c = vertex coordinate size: options 3 threeD, 4 homogeneous coord
+	// p packed: half float positions, 2_10_10_10 normals and
+	// normalized byte colors (not with di, dm, db)
 	// l = lighting model: options c cpu, v vertex shader, f fragment shader
+	// (c bakes lit colors at setData time; no normal attribute)
+	// u = model matrix upload; options: u glUniformMatrix4fv per draw,
+	// p persistent mapped triple-buffered ring (GL 4.4)
+	// s shader storage buffer of all model matrices, dirty
+	// ranges only (GL 4.3)
+	// o = draw submission order; options: a order shapes were added,
+	// s draw list sorted by GL state, binds only on change
+	// p recorded in parallel into command streams by RECORDWORKERS
+	// threads, replayed on the GL thread (not with up, os)
+	// v = visibility; options: a draw all shapes, f cull shapes
+	// outside the view frustum with a bounding volume hierarchy,
+	// o skip groups hidden last time by occlusion queries;
+	// vf and vo may be combined (not with di, dm, db)
+	// g = geometry; options: a as given, o with de, weld and
+	// reorder for the vertex cache, smallest index type
+	// k = scene construction; options: a each shape loads its own buffers,
+	// b batched: bua or buj data staged off-heap and uploaded with
+	// one glBufferData, shapes draw from offsets into it
+	// p parallel: box parameters and model matrices generated
+	// in chunks on a ForkJoinPool, one SplittableRandom per
+	// chunk (a different scene than ka's Random(1)); kp may
+	// be combined with kb
+	// z = frame loop heap allocation; options: n not measured, a bytes
+	// per frame logged each report and checked against a
+	// budget (ALLOCBUDGET, default 16); over budget fails rb
+	// w = workload; options: s static shapes, m every shape spins and
+	// drifts at its own velocity, updated each frame on a
+	// ForkJoinPool; logs CPU update, upload and draw times
+	// s = simulation; options: r on the render thread, t on its own
+	// thread: rotation keys, auto rotation and wm run there at
+	// 60 Hz and reach the renderer as triple-buffered snapshots
 	// bt = add texture coordinates to all of the specified buffer options.
 	// Codes may be added, but this code can ignore any entries that it.
 	// doesn't support.
+	private static boolean parallelGeneration = false; // kp
+	private static boolean movingWorkload = false; // wm
+	private static boolean simulationThread = false; // st
 	public static String configCode = "bua.da.mc."; // unshared apart buffers,
 													// glDrawArrays
 													// matrix mul in gpu
@@ -74,6 +124,11 @@ public class SceneManager {
 	private ArrayList<Scene> allScenes;
 	private Scene curScene = null;
 	private int curSceneIndex = 0;
+	private Animator animator = null; // wm; stepped here unless st
+	private Simulation simulation = null; // st
+	private long appliedTick = -1; // of the last snapshot applied
+	private long appliedVersion = -1; // of the matrices last applied
+	private long generationNanos = 0; // kp: parallel generation time
 
 	private boolean autoRotation = false;
 
@@ -98,7 +153,8 @@ public class SceneManager {
 	private float farZ = 40;
 
 	// --------- buffers/textures
-	private FloatBuffer projXsceneBuf; // MemoryUtil allocation!
+	private NativeArena memory = NativeArena.pool("SceneManager"); // freed by close
+	private FloatBuffer projXsceneBuf; // from memory
 	// ------ buffers for matrix ---
 	private FloatBuffer projBuf;
 	private FloatBuffer sceneBuf;
@@ -113,25 +169,51 @@ public class SceneManager {
 	public SceneManager() {
 		UtilsLWJGL.glError("--->SceneManger.ctor"); // clean out old errors
 		setupTestOptions();
+		if (AllocationMeter.enabled)
+			AllocationMeter.setup(); // on the GL thread
 
 		allScenes = new ArrayList<Scene>();
 
 		setupView();
 		updateView();
 
+		if (Shape3D.usePersistentRing) {
+			if (GL.getCapabilities().OpenGL44)
+				Shape3D.modelRing = new PersistentModelRing(numObjects);
+			else
+				System.err.println("***** up needs OpenGL 4.4 (try GLVERSION=4.4); using glUniformMatrix4fv");
+		}
+		if (Shape3D.useModelStore)
+			Shape3D.modelStore = new ModelStore(numObjects);
+		if (Shape3D.useTriangleStrips && Shape3D.useElements)
+			glEnable(GL_PRIMITIVE_RESTART); // index set per type by Shape3D
+
 		allScenes.add(makeScene(numObjects));
 		curScene = allScenes.get(curSceneIndex);
+		if (simulationThread) {
+			simulation = new Simulation(Shape3D.transforms, movingWorkload, autoRotation, deltaRotate);
+			simulation.start();
+			animator = simulation.animator(); // for the draw time and report
+		} else if (movingWorkload)
+			animator = new Animator(Shape3D.transforms, ForkJoinPool.commonPool(), 2);
 		UtilsLWJGL.glError("<---SceneManger.ctor"); // clean out old errors
 	}
 
-	// ------------------- finalize -----------------------------
+	// ------------------- close -----------------------------
 	/**
-	 * setupView creates a Buffer with MemoryUtil; although SceneManager only
-	 * has one instance, it's still a good idea to acknowledge the C++ like
-	 * allocation and free it on cleanup.
+	 * Free the native buffers of the scenes, the shared stores and
+	 * setupView; called by P3 once the render loop ends.
 	 */
-	public void finalize() {
-		MemoryUtil.memFree(projXsceneBuf);
+	public void close() {
+		if (simulation != null)
+			simulation.close();
+		for (Scene scene : allScenes)
+			scene.close();
+		Shape3D.closeAll();
+		Shape3D.transforms.close();
+		if (Shape3D.modelStore != null)
+			Shape3D.modelStore.close();
+		memory.close();
 	}
 
 	// ------------------ setupTestOptions() ----------------------
@@ -147,9 +229,34 @@ public class SceneManager {
 		Shape3D.unSharedApartBuffers = configCode.contains("bua");
 		Shape3D.textureCoordsShared = configCode.contains("tb");
 
+		// ------ debug: cross-check the GL state shadow
+		GLState.checking = System.getenv("GLSTATECHECK") != null;
+		if (GLState.checking)
+			System.err.println("GL state cross-check on (GLSTATECHECK)");
+
 		// ------- draw options--------------------------------
 		Shape3D.useElements = configCode.contains("de");
 		Shape3D.useTriangleStrips = configCode.contains("ds");
+		Shape3D.useInstancing = configCode.contains("di");
+		Shape3D.useMultiDraw = configCode.contains("dm");
+		if (Shape3D.useMultiDraw && !GL.getCapabilities().OpenGL43) {
+			System.err.println("***** dm needs OpenGL 4.3 (try GLVERSION=4.3); drawing per shape");
+			Shape3D.useMultiDraw = false;
+		}
+		Shape3D.useStaticBatch = configCode.contains("db");
+		if (Shape3D.useTriangleStrips && Shape3D.sceneOwnsBuffers()) {
+			System.err.println("***** ds is not supported with di, dm or db; drawing triangles");
+			Shape3D.useTriangleStrips = false;
+		}
+		Shape3D.useSortedDrawList = configCode.contains("os");
+		Shape3D.useCommandStreams = configCode.contains("op");
+
+		// ----------visibility--------------------------------
+		Shape3D.useFrustumCulling = configCode.contains("vf");
+		Shape3D.useOcclusionCulling = configCode.contains("vo");
+
+		// ----------geometry----------------------------------
+		Shape3D.optimizeMeshes = configCode.contains("go");
 
 		// ---------optional features -1-----------------------
 		// ------------ blocked and interleaved
@@ -159,15 +266,112 @@ public class SceneManager {
 		// -------------- c3, c4 -----------
 		Shape3D.useThree = configCode.contains("c3");
 		Shape3D.useFour = configCode.contains("c4");
+		Shape3D.compactVertices = configCode.contains("cp");
+		if (Shape3D.compactVertices && Shape3D.sceneOwnsBuffers()) {
+			System.err.println("***** cp is not supported with di, dm or db; using float vertices");
+			Shape3D.compactVertices = false;
+		}
+
+		// ----------scene construction------------------------
+		Shape3D.batchedConstruction = configCode.contains("kb");
+		if (Shape3D.batchedConstruction && (Shape3D.sceneOwnsBuffers()
+				|| !(Shape3D.unSharedApartBuffers || Shape3D.unSharedJointBuffers))) {
+			System.err.println("***** kb needs bua or buj (not with di, dm, db); loading per shape");
+			Shape3D.batchedConstruction = false;
+		}
+
+		parallelGeneration = configCode.contains("kp");
+
+		// ----------workload----------------------------------
+		movingWorkload = configCode.contains("wm");
+		simulationThread = configCode.contains("st");
+
+		// ----------allocation meter--------------------------
+		AllocationMeter.enabled = configCode.contains("za");
+
+		// ----------lighting----------------------------------
+		Shape3D.bakeLighting = configCode.contains("lc");
+		Shape3D.fragmentLighting = configCode.contains("lf") && !Shape3D.bakeLighting;
 
 		// ----------PSV multiply------------------------------
 		//
 		Shape3D.PSV_mc = configCode.contains("mc");
 		Shape3D.PSV_mg = configCode.contains("mg");
 
+		// ----------model matrix upload-----------------------
+		Shape3D.usePersistentRing = configCode.contains("up");
+		if (Shape3D.usePersistentRing && Shape3D.sceneOwnsBuffers()) {
+			// the ring is written by Shape3D.redraw, which these never call
+			System.err.println("***** up is not supported with di, dm or db; using glUniformMatrix4fv");
+			Shape3D.usePersistentRing = false;
+		}
+		Shape3D.useModelStore = configCode.contains("us") && modelStoreSupported();
+		if (Shape3D.useModelStore && Shape3D.sceneOwnsBuffers()) {
+			// their VAOs have no iObject and the store is updated per shape
+			System.err.println("***** us is not supported with di, dm or db; using their instance matrices");
+			Shape3D.useModelStore = false;
+		}
+		if (Shape3D.useCommandStreams && (Shape3D.usePersistentRing || Shape3D.useSortedDrawList)) {
+			// the ring is written as shapes are drawn, in draw order
+			System.err.println("***** op is not supported with up or os; drawing on the GL thread");
+			Shape3D.useCommandStreams = false;
+		}
+
 		// ------- other settings need to be done for other tests -------
 	}
 
+	// ------------------ shaderDefines() ----------------------
+	/**
+	 * The #defines the shader program must be compiled with for the current
+	 * configCode. P3 builds the program before the SceneManager exists, so
+	 * this is static.
+	 */
+	public static String[] shaderDefines() {
+		ArrayList<String> defines = new ArrayList<String>();
+		if (configCode.contains("lc"))
+			defines.add(Lighting.CPU_DEFINE);
+		else if (configCode.contains("lf"))
+			defines.add(Lighting.FRAGMENT_DEFINE);
+		if (configCode.contains("us") && !sceneDrawRequested()) {
+			if (modelStoreSupported())
+				defines.add(ModelStore.SHADER_DEFINE);
+			else
+				System.err.println("***** us needs OpenGL 4.3 (try GLVERSION=4.3); using glUniformMatrix4fv");
+		}
+		return defines.toArray(new String[defines.size()]);
+	}
+
+	// ------------------ shaderVersion() ----------------------
+	/**
+	 * The GLSL version the shader program must be compiled as, or null for
+	 * the #version of the shader files: storage buffers (us) are core in
+	 * GLSL 4.30 only.
+	 */
+	public static String shaderVersion() {
+		if (configCode.contains("us") && !sceneDrawRequested() && modelStoreSupported())
+			return "430 core";
+		return null;
+	}
+
+	// ------------------ sceneDrawRequested() ----------------------
+	/**
+	 * di, dm or db will draw the whole scene: what Shape3D.sceneOwnsBuffers
+	 * says once setupTestOptions has run, for shaderDefines, which runs first.
+	 */
+	private static boolean sceneDrawRequested() {
+		return configCode.contains("di") || configCode.contains("db")
+				|| (configCode.contains("dm") && GL.getCapabilities().OpenGL43);
+	}
+
+	// ------------------ modelStoreSupported() ----------------------
+	/**
+	 * us needs shader storage buffers and baseInstance draws, and the shader
+	 * is compiled as GLSL 4.30 for them.
+	 */
+	private static boolean modelStoreSupported() {
+		return GL.getCapabilities().OpenGL43;
+	}
+
 	// ------------------ makeScene --------------------------
 	/**
 	 * Create the objects that make up the scene.
@@ -187,30 +391,114 @@ public class SceneManager {
 		float deltaXYZ = 1.9f;
 
 		Box box = null;
-
-		for (int i = 0; i < n; i++) {
-			// 1st arg to Box: true: vertex color is face color;
-			// false vertex has own color.
-			// 2nd arg to Box: true: vertex normal is face normal
-			// false: vertex normal is avg of shared face normals
-			box = new Box(rng.nextBoolean(), rng.nextBoolean());
-			float size = minSize + rng.nextFloat() * deltaSize;
-			box.setSize(size, size, size);
-			float x = minXYZ + rng.nextFloat() * deltaXYZ;
-			float y = minXYZ + rng.nextFloat() * deltaXYZ;
-			float z = minXYZ + rng.nextFloat() * deltaXYZ;
-			box.setLocation(x, y, z);
-			// rotate random amount around y axis
-			box.setRotate(rng.nextFloat() * 360, 0, 1, 0);
-			scene.addShape(box);
+		SceneGenerator gen = null; // kp
+		if (Shape3D.batchedConstruction)
+			Shape3D.stagingBatch = new StagingBatch();
+
+		if (parallelGeneration) {
+			gen = generateScene(n);
+			for (int i = 0; i < n; i++)
+				scene.addShape(gen.makeBox(i));
+		} else {
+			for (int i = 0; i < n; i++) {
+				// 1st arg to Box: true: vertex color is face color;
+				// false vertex has own color.
+				// 2nd arg to Box: true: vertex normal is face normal
+				// false: vertex normal is avg of shared face normals
+				box = new Box(rng.nextBoolean(), rng.nextBoolean());
+				float size = minSize + rng.nextFloat() * deltaSize;
+				box.setSize(size, size, size);
+				float x = minXYZ + rng.nextFloat() * deltaXYZ;
+				float y = minXYZ + rng.nextFloat() * deltaXYZ;
+				float z = minXYZ + rng.nextFloat() * deltaXYZ;
+				box.setLocation(x, y, z);
+				// rotate random amount around y axis
+				box.setRotate(rng.nextFloat() * 360, 0, 1, 0);
+				scene.addShape(box);
+			}
 		}
 		long elapsedMillis = System.currentTimeMillis() - start;
 		float elapsedSecs = (float) elapsedMillis / 1000.0f;
 		System.err.println("Scene creation time: " + elapsedSecs);
+		if (gen != null)
+			checkGeneration(gen, n); // not part of the creation time
+		if (Shape3D.stagingBatch != null)
+			finishBatch(Shape3D.stagingBatch, elapsedMillis);
+
+		long updateStart = System.nanoTime();
+		int updated = Shape3D.transforms.updateDirty();
+		long updateNanos = System.nanoTime() - updateStart;
+		P3.log(String.format("Transform store: %d objects, %d bytes/object; %d matrices computed in %.1f ms (%.1f M/s)",
+				Shape3D.transforms.size(), TransformStore.BYTES_PER_OBJECT, updated, updateNanos / 1e6,
+				updated * 1e3 / Math.max(updateNanos, 1)));
+
+		start = System.currentTimeMillis();
+		scene.buildRenderer();
+		elapsedSecs = (System.currentTimeMillis() - start) / 1000.0f;
+		if (Shape3D.useStaticBatch)
+			System.err.println("Static batch build time: " + elapsedSecs);
+		P3.log("GL objects created: " + UtilsLWJGL.vertexArraysCreated + " VAOs, " + UtilsLWJGL.buffersCreated
+				+ " buffers");
+		Shape3D.reportVertexBytes();
+		NativeArena.report(-1);
 		UtilsLWJGL.glError("<---SceneManger.makeScene"); // clean out old errors
 		return scene;
 	}
 
+	// ------------------ generateScene --------------------------
+	/**
+	 * kp: generate the box parameters and model matrices on the common
+	 * ForkJoinPool.
+	 */
+	private SceneGenerator generateScene(int n) {
+		SceneGenerator gen = new SceneGenerator(n, 1);
+		long start = System.nanoTime();
+		gen.generate(ForkJoinPool.commonPool());
+		generationNanos = System.nanoTime() - start;
+		return gen;
+	}
+
+	// ------------------ checkGeneration --------------------------
+	/**
+	 * kp: generate the scene again on this thread, after the timed scene
+	 * creation, to log the speedup and check that the results are identical.
+	 * The parallel run went first, so any JIT warm-up counts against it.
+	 */
+	private void checkGeneration(SceneGenerator gen, int n) {
+		SceneGenerator check = new SceneGenerator(n, 1);
+		long start = System.nanoTime();
+		check.generate(null);
+		long sequentialNanos = System.nanoTime() - start;
+
+		boolean identical = gen.sameAs(check);
+		P3.log(String.format(
+				"Scene generation of %d boxes: sequential %.1f ms, %d threads %.1f ms, speedup %.2f, identical %b", n,
+				sequentialNanos / 1e6, ForkJoinPool.commonPool().getParallelism(), generationNanos / 1e6,
+				(double) sequentialNanos / Math.max(generationNanos, 1), identical));
+		if (!identical)
+			P3.logErr("***** parallel scene generation differs from sequential");
+	}
+
+	// ------------------ finishBatch --------------------------
+	/**
+	 * kb: upload the staged scene data and set up every shape's VAO, logging
+	 * the time of each construction phase.
+	 */
+	private void finishBatch(StagingBatch batch, long fillMillis) {
+		long start = System.nanoTime();
+		batch.upload();
+		glFinish(); // count the transfer in the upload, not the first frame
+		long uploaded = System.nanoTime();
+		batch.setupVAOs();
+		long done = System.nanoTime();
+		Shape3D.stagingBatch = null;
+		P3.log(String.format(
+				"Batched construction of %d shapes: CPU fill %d ms, upload %.1f ms (%d vertex + %d index bytes), "
+						+ "VAO setup %.1f ms",
+				batch.shapeCount(), fillMillis, (uploaded - start) / 1e6, batch.vertexBytes(), batch.indexBytes(),
+				(done - uploaded) / 1e6));
+	}
+
 	// --------------------- keyHandler ---------------------------
 	/**
 	 * Make this a full-fledged method called from the invoke method of the
@@ -232,6 +520,11 @@ public class SceneManager {
 	public void keyHandler(long window, int key, int code, int action, int mods) {
 		if (curScene == null)
 			return;
+		if (simulation != null && (key == GLFW_KEY_DOWN || key == GLFW_KEY_UP || key == GLFW.GLFW_KEY_LEFT
+				|| key == GLFW.GLFW_KEY_RIGHT || key == GLFW.GLFW_KEY_SLASH)) {
+			simulation.post(key, action); // the simulation owns the rotation
+			return;
+		}
 		switch (key) {
 		case GLFW.GLFW_KEY_PERIOD: // next scene
 			if (action == GLFW.GLFW_PRESS) {
@@ -293,7 +586,7 @@ public class SceneManager {
 	 * an small z rotation for each frame.
 	 */
 	public void sceneRotateZ() {
-		if (autoRotation) {
+		if (autoRotation && simulation == null) {
 			float dAngle = 1.0f;
 			curScene.rotateZ(dAngle);
 			updateView();
@@ -316,13 +609,13 @@ public class SceneManager {
 		LWJGL.vsmMatrix = new Matrix4f(); // view*scene*model == ModelView
 		LWJGL.pvsmMatrix = new Matrix4f(); // projection*view*scene*model
 
-		projXsceneBuf = MemoryUtil.memAllocFloat(16);
+		projXsceneBuf = memory.allocFloat(16);
 
 		// Buffers uploaded to shader to multiply
 
-		projBuf = MemoryUtil.memAllocFloat(16);
-		sceneBuf = MemoryUtil.memAllocFloat(16);
-		viewBuf = MemoryUtil.memAllocFloat(16);
+		projBuf = memory.allocFloat(16);
+		sceneBuf = memory.allocFloat(16);
+		viewBuf = memory.allocFloat(16);
 
 		UtilsLWJGL.glError("<---SceneManger.setupView"); // clean out old errors
 	}
@@ -362,9 +655,9 @@ public class SceneManager {
 			// --- now push the composite into a uniform var in vertex shader
 			// this id does not need to be global since we never change
 			// projection or viewing specs in this program.
-			int unif_pXv = glGetUniformLocation(LWJGL.shaderProgram, "projXview");
+			int unif_pXv = LWJGL.program.uniform("projXview");
 
-			glUniformMatrix4fv(unif_pXv, false, projXsceneBuf);
+			LWJGL.program.setMatrix4f(unif_pXv, projXsceneBuf);
 			UtilsLWJGL.glError("<---SceneManger.updateView"); // clean out old
 			// projection, scene, view uploaded to shader
 			// get stores this matrix into its argument -- a buffer in this case
@@ -377,29 +670,99 @@ public class SceneManager {
 			viewBuf = LWJGL.viewMatrix.get(viewBuf);
 
 			// --- now push the composite into a uniform var in vertex shader
-			int unif_p = glGetUniformLocation(LWJGL.shaderProgram, "proj");
-			int unif_v = glGetUniformLocation(LWJGL.shaderProgram, "view");
-			int unif_s = glGetUniformLocation(LWJGL.shaderProgram, "scene");
-			int flag_shadercode = glGetUniformLocation(LWJGL.shaderProgram, "psv_flag");
-
-			glUniformMatrix4fv(unif_p, false, projBuf);
-			glUniformMatrix4fv(unif_v, false, viewBuf);
-			glUniformMatrix4fv(unif_s, false, sceneBuf);
-			glUniform1f(flag_shadercode, 1);
+			int unif_p = LWJGL.program.uniform("proj");
+			int unif_v = LWJGL.program.uniform("view");
+			int unif_s = LWJGL.program.uniform("scene");
+			int flag_shadercode = LWJGL.program.uniform("psv_flag");
+
+			LWJGL.program.setMatrix4f(unif_p, projBuf);
+			LWJGL.program.setMatrix4f(unif_v, viewBuf);
+			LWJGL.program.setMatrix4f(unif_s, sceneBuf);
+			LWJGL.program.set1f(flag_shadercode, 1);
 			UtilsLWJGL.glError("<---SceneManger.updateView"); // clean out old
 
 		}
 
 	}
 
+	// ------------------------ projViewScene() -------------------------------
+	/**
+	 * The world to clip transform the shader applies after the model
+	 * matrix: projection * view * scene, or projection * scene * view when
+	 * the gpu multiplies them (mg). Used by culling to match what is drawn.
+	 */
+	static Matrix4f projViewScene(Matrix4f dest) {
+		dest.set(LWJGL.projectionMatrix);
+		if (Shape3D.PSV_mg)
+			return dest.mul(LWJGL.sceneMatrix).mul(LWJGL.viewMatrix);
+		return dest.mul(LWJGL.viewMatrix).mul(LWJGL.sceneMatrix);
+	}
+
+	// ------------------------ report() -------------------------------
+	/**
+	 * Log the per-interval statistics of the active test options. Called by
+	 * P3 each time it logs an average redraw line.
+	 * 
+	 * @param frames
+	 *            int frames drawn in the interval
+	 */
+	void report(int frames) {
+		AllocationMeter.report(frames);
+		ShaderProgram.report(frames);
+		GLState.report(frames);
+		NativeArena.report(frames);
+		Shape3D.transforms.report(frames);
+		if (animator != null)
+			animator.report(frames);
+		if (simulation != null)
+			simulation.report(frames);
+		if (Shape3D.modelRing != null)
+			Shape3D.modelRing.report(frames);
+		if (Shape3D.modelStore != null)
+			Shape3D.modelStore.report(frames);
+		if (Shape3D.useCommandStreams && !Shape3D.sceneOwnsBuffers())
+			CommandRecorder.report(frames);
+		if (Shape3D.useFrustumCulling && !Shape3D.sceneOwnsBuffers())
+			ShapeBVH.report(frames);
+		if (Shape3D.useOcclusionCulling && !Shape3D.sceneOwnsBuffers())
+			OcclusionCuller.report(frames);
+	}
+
 	// ------------------------ redraw() -------------------------------
 	/**
 	 * Initiate scene redraw invocations.
 	 */
 	void redraw() {
 		glClear(GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT);
-		if (curScene != null)
+		if (curScene != null) {
+			if (simulation != null)
+				applySnapshot();
+			if (animator != null && simulation == null)
+				animator.step();
+			long start = System.nanoTime();
 			curScene.redraw();
+			if (animator != null)
+				animator.countDraw(System.nanoTime() - start);
+		}
 		glFlush();
 	}
+
+	// ------------------------ applySnapshot() -------------------------------
+	/**
+	 * Take the simulation's newest state, if there is one this frame has
+	 * not seen: the scene rotation, and the model matrices if they changed.
+	 * Never waits for the simulation.
+	 */
+	private void applySnapshot() {
+		Simulation.Snapshot s = simulation.latest();
+		if (s == null || s.tick == appliedTick)
+			return;
+		appliedTick = s.tick;
+		curScene.setRotation(s.xRadians, s.yRadians, s.zRadians);
+		updateView();
+		if (s.objectsVersion != appliedVersion) {
+			Shape3D.transforms.setMatrices(s.matrices);
+			appliedVersion = s.objectsVersion;
+		}
+	}
 }
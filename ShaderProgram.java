@@ -0,0 +1,195 @@
+
+/**
+ * ShaderProgram.java - a linked program's active uniforms and attributes,
+ *           found once by introspection, and a shadow copy of its uniform
+ *           values that elides glUniform calls that would not change them.
+ *
+ * Uniform values are program state, so the shadow is per program; a set
+ * method must be called while its program is bound, as glUniform requires.
+ * All uniform uploads to a program should go through its ShaderProgram, or
+ * the shadow no longer matches the GL. Names are as GLSL declares them;
+ * unknown or inactive names have location -1 and their uploads are
+ * ignored, as GL ignores them.
+ *
+ * Issued and elided uploads are counted for every program and logged per
+ * frame by report.
+ *
+ * 10/17/26 created to replace per-object and per-update location lookups.
+ */
+import static org.lwjgl.opengl.GL20.*;
+
+import java.nio.*;
+import java.util.*;
+
+import org.lwjgl.system.MemoryUtil;
+
+public class ShaderProgram {
+	// ------------------ class variables ------------------------------
+	private static HashMap<Integer, ShaderProgram> programs = new HashMap<Integer, ShaderProgram>();
+
+	// -------- upload accounting since last report
+	private static long issued = 0;
+	private static long elided = 0;
+
+	// ------------------ instance variables ----------------------------
+	private int id;
+	private HashMap<String, Integer> uniforms = new HashMap<String, Integer>();
+	private HashMap<String, Integer> attributes = new HashMap<String, Integer>();
+	private float[][] shadow; // by location; null until first set
+
+	// ------------------------ of -----------------------------
+	/**
+	 * The ShaderProgram for a linked program id, introspected the first time
+	 * it is asked for.
+	 */
+	static ShaderProgram of(int id) {
+		ShaderProgram program = programs.get(id);
+		if (program == null) {
+			program = new ShaderProgram(id);
+			programs.put(id, program);
+		}
+		return program;
+	}
+
+	// ------------------ constructor ------------------------
+	private ShaderProgram(int id) {
+		this.id = id;
+		IntBuffer size = MemoryUtil.memAllocInt(1);
+		IntBuffer type = MemoryUtil.memAllocInt(1);
+		int maxLocation = -1;
+		int nUniforms = glGetProgrami(id, GL_ACTIVE_UNIFORMS);
+		for (int i = 0; i < nUniforms; i++) {
+			String name = baseName(glGetActiveUniform(id, i, size, type));
+			int location = glGetUniformLocation(id, name);
+			if (location < 0)
+				continue; // a member of a uniform block
+			uniforms.put(name, location);
+			maxLocation = Math.max(maxLocation, location + size.get(0) - 1);
+		}
+		int nAttributes = glGetProgrami(id, GL_ACTIVE_ATTRIBUTES);
+		for (int i = 0; i < nAttributes; i++) {
+			String name = baseName(glGetActiveAttrib(id, i, size, type));
+			attributes.put(name, glGetAttribLocation(id, name));
+		}
+		MemoryUtil.memFree(size);
+		MemoryUtil.memFree(type);
+		shadow = new float[maxLocation + 1][];
+		System.err.println("Shader program " + id + ": " + uniforms.size() + " active uniforms " + uniforms.keySet()
+				+ ", " + attributes.size() + " attributes " + attributes.keySet());
+	}
+
+	// ------------------------ accessors -----------------------------
+	int id() {
+		return id;
+	}
+
+	/**
+	 * Location of an active uniform, or -1.
+	 */
+	int uniform(String name) {
+		Integer location = uniforms.get(name);
+		return location == null ? -1 : location;
+	}
+
+	/**
+	 * Location of an active vertex attribute, or -1.
+	 */
+	int attribute(String name) {
+		Integer location = attributes.get(name);
+		return location == null ? -1 : location;
+	}
+
+	// ------------------------ set1f -----------------------------
+	/**
+	 * glUniform1f unless the uniform already has the value.
+	 */
+	void set1f(int location, float value) {
+		if (location < 0)
+			return;
+		float[] old = shadow[location];
+		if (old != null && old[0] == value) {
+			elided++;
+			return;
+		}
+		if (old == null)
+			old = shadow[location] = new float[1];
+		old[0] = value;
+		glUniform1f(location, value);
+		issued++;
+	}
+
+	// ------------------------ set4f -----------------------------
+	/**
+	 * glUniform4fv unless the uniform already has the value.
+	 */
+	void set4f(int location, float[] value) {
+		if (location < 0)
+			return;
+		if (changed(location, value)) {
+			glUniform4fv(location, value);
+			issued++;
+		} else
+			elided++;
+	}
+
+	// ------------------------ setMatrix4f -----------------------------
+	/**
+	 * glUniformMatrix4fv (not transposed) of the 16 floats from the buffer's
+	 * position unless the uniform already has the value.
+	 */
+	void setMatrix4f(int location, FloatBuffer value) {
+		if (location < 0)
+			return;
+		float[] old = shadow[location];
+		int at = value.position();
+		if (old == null)
+			old = shadow[location] = new float[16];
+		else {
+			boolean same = true;
+			for (int i = 0; i < 16 && same; i++)
+				same = old[i] == value.get(at + i);
+			if (same) {
+				elided++;
+				return;
+			}
+		}
+		for (int i = 0; i < 16; i++)
+			old[i] = value.get(at + i);
+		glUniformMatrix4fv(location, false, value);
+		issued++;
+	}
+
+	// ------------------------ report -----------------------------
+	/**
+	 * Log issued vs elided uniform uploads per frame over the last report
+	 * interval and reset the counts.
+	 */
+	public static void report(int frames) {
+		float n = frames == 0 ? 1 : frames;
+		P3.log(String.format("Uniform uploads per frame: issued %10.1f    elided %10.1f", issued / n, elided / n));
+		issued = 0;
+		elided = 0;
+	}
+
+	// ++++++++++++++++++++ private methods +++++++++++++++++++++++++++++++
+	/**
+	 * Update the shadow with value; false if it was already the value.
+	 */
+	private boolean changed(int location, float[] value) {
+		float[] old = shadow[location];
+		if (old != null && Arrays.equals(old, value))
+			return false;
+		if (old == null || old.length != value.length)
+			old = shadow[location] = new float[value.length];
+		System.arraycopy(value, 0, old, 0, value.length);
+		return true;
+	}
+
+	/**
+	 * Active array names end in "[0]"; the location of the array is the
+	 * location of that name without the subscript.
+	 */
+	private static String baseName(String name) {
+		return name.endsWith("[0]") ? name.substring(0, name.length() - 3) : name;
+	}
+}
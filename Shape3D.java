@@ -6,19 +6,46 @@
  * 10/16/13 rdb derived from Shape3D.cpp
  * 09/28/15 rdb Revised for lwjgl              
  * 12/28/16 rdb Revised for lwjgl3.1; esp replace BufferUtils with * MemoryUtil
+ * 10/17/26     Keep references to the mesh arrays so Scene renderers can
+ *              group shapes that share a mesh (di)
+ * 10/17/26     Shared modes (bsa, bsj) create one VAO and color buffer per
+ *              distinct mesh layout instead of per object.
+ * 10/17/26     Split redraw into uploadModel/drawGeometry so DrawList can
+ *              do the binds (os).
+ * 10/17/26     go: non-indexed data is welded and reordered by MeshOptimizer
+ *              for glDrawElements; indexes may be byte, short or int.
+ * 10/17/26     ds: setData turns triangle lists into strips (Stripifier).
+ * 10/17/26     cp: loadBuffer and loadBuffer_joint upload compact vertex
+ *              formats (VertexPacker); VBO bytes are tallied for the log.
+ * 10/17/26     lc: setData bakes lit colors (Lighting) and drops normals.
+ * 10/17/26     Locations come from ShaderProgram; uniform uploads go through
+ *              its shadow so unchanged values are not sent again.
+ * 10/17/26     Binds go through GLState; loads and draws no longer unbind
+ *              the VAO and buffer they used.
+ * 10/17/26     kb: unshared data is staged into a StagingBatch and drawn
+ *              from offsets into its buffers.
+ * 10/17/26     kp: setModelMatrix takes a matrix computed by SceneGenerator.
+ * 10/17/26     Location, rotation, size and the model matrix are kept in
+ *              the TransformStore; a shape is a slot in it.
+ * 10/17/26     Native buffers come from NativeArenas: setData temporaries
+ *              are freed when loaded, color buffers are pooled and reused
+ *              (setColor leaked one per call), close() replaces finalize.
+ * 10/17/26     op: record writes what redraw does to a CommandBuffer.
  */
 import static org.lwjgl.opengl.GL11.*;
 import static org.lwjgl.opengl.GL15.*;
 import static org.lwjgl.opengl.GL20.*;
 import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL31.*;
+import static org.lwjgl.opengl.GL42.*;
 
 import org.joml.*;
 import java.nio.*;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 
 import org.lwjgl.BufferUtils;
-import org.lwjgl.system.MemoryUtil;
 
 import com.sun.xml.internal.bind.v2.schemagen.xmlschema.List;
 
@@ -43,9 +70,21 @@ abstract public class Shape3D {
 	static boolean sharedApartBuffers = false; // bsa code
 	static boolean unSharedApartBuffers = false; // bua code
 	static boolean textureCoordsShared = false; // tb code
-	static boolean useTriangleStrips = false; // ts code
+	static boolean useTriangleStrips = false; // ds code
 
 	static boolean useElements = false; // de
+	static boolean useInstancing = false; // di
+	static boolean useMultiDraw = false; // dm
+	static boolean useStaticBatch = false; // db
+	static boolean useSortedDrawList = false; // os
+	static boolean useCommandStreams = false; // op
+	static boolean useFrustumCulling = false; // vf
+	static boolean useOcclusionCulling = false; // vo
+	// ----------geometry----------------------------------
+	static boolean optimizeMeshes = false; // go
+	// bumped whenever a shape gets new GL objects or data; a DrawList
+	// compiled under an older value is recompiled
+	static int resourceGeneration = 0;
 	// ----------- optional features 1 ----------------------
 	static boolean interleaved = false; // ai
 	static boolean blocked = false; // ab
@@ -53,6 +92,15 @@ abstract public class Shape3D {
 	// ------------- optionalFeatures 2 ----------------------
 	static boolean useThree = false; // c3
 	static boolean useFour = false; // c4
+	static boolean compactVertices = false; // cp
+
+	// ----------lighting: lv, in the vertex shader, if neither---------
+	static boolean bakeLighting = false; // lc
+	static boolean fragmentLighting = false; // lf
+	// bytes in each vertex and index VBO as last loaded, by buffer id, and
+	// packed or float bytes per vertex of each attribute kind (VertexPacker)
+	static HashMap<Integer, Long> vboBytes = new HashMap<Integer, Long>();
+	static int[] attributeBytes = new int[3];
 
 	// ----------PSV multiply---------------------------------
 	static boolean PSV_mc = false; // mc
@@ -60,6 +108,16 @@ abstract public class Shape3D {
 	// uniform flag for psv
 	protected static int psv_flag = -1; // Uniform id for matrix Flag
 
+	// ----------model matrix upload---------------------------
+	static boolean usePersistentRing = false; // up
+	static PersistentModelRing modelRing = null; // created by SceneManager
+	static boolean useModelStore = false; // us
+	static ModelStore modelStore = null; // created by SceneManager
+
+	// ----------scene construction---------------------------
+	static boolean batchedConstruction = false; // kb
+	static StagingBatch stagingBatch = null; // created by SceneManager
+
 	static int shapeCount = 0; // used to limit impl warnings.
 	protected static int uModel = -1; // uniform id for model matrix
 	protected static int uColor = -1; // uniform id for color value
@@ -70,6 +128,7 @@ abstract public class Shape3D {
 	// objects to share their uniform variables.
 	//
 	private int shaderPgm = -1;
+	private ShaderProgram program = null; // shaderPgm's locations and shadow
 	private int vaoId = -1;
 
 	private int nTriangles = -1;
@@ -86,8 +145,6 @@ abstract public class Shape3D {
 	// ------ vertex data and variables
 	// private FloatBuffer coordBuffer = null;
 	// private FloatBuffer normalBuffer = null;
-	private FloatBuffer colorBuffer = null;
-	private FloatBuffer coordBuffer = null;
 
 	private int posVBO = -1;
 	private int normalVBO = -1; // buffer for normals
@@ -97,8 +154,9 @@ abstract public class Shape3D {
 	private int indexVBO = -1; // index VBO
 	private int indexesCount = 0;
 	private int indexsize = -1;
-	protected ByteBuffer indexInfo = null; // ByteBuffer
 	protected int noOfIndex = -1;
+	private long indexOffset = 0L; // bytes into indexVBO; kb
+	private long[] stagedOffsets = null; // by VertexPacker kind; kb
 
 	// Shared Apart Buffer /bsa
 	private static int posVBO_static = -1;
@@ -112,22 +170,47 @@ abstract public class Shape3D {
 	// interleaved Buffer
 	private static int interleaveVBO = -1;
 
+	// Shared modes: one VAO/color buffer per distinct mesh layout, keyed by
+	// meshKey(). The Box arrays give at most 4 layouts.
+	private static class SharedLayout {
+		int vaoId = -1;
+		int colorVBO = -1;
+		int indexVBO = -1;
+	}
+
+	private static HashMap<java.util.List<Object>, SharedLayout> sharedLayouts = new HashMap<java.util.List<Object>, SharedLayout>();
+	private static int restartIndexType = -1; // type glPrimitiveRestartIndex is set for
+
 	// ------------------ object instance variables ----------------------------
-	protected float xLoc, yLoc, zLoc; // location (origin) of object
-	protected float xSize, ySize, zSize; // size of the object
-	protected float angle, dxRot, dyRot, dzRot; // rotation angle and axis
+	// location, size, rotation and model matrix of every shape, by slot
+	static TransformStore transforms = new TransformStore();
+	protected final int transform = transforms.add();
 
-	protected Matrix4f modelMatrix = new Matrix4f();
-	protected boolean modelNeedsUpdate = true;
+	protected int visibleFrame = -1; // last ShapeBVH.cull frame it passed
+	protected int bvhLeaf = -1; // ShapeBVH leaf, i.e. occlusion group
 
 	protected Color[] colors = new Color[MAX_COLORS];
 
-	protected FloatBuffer[] colorBufs = new FloatBuffer[MAX_COLORS];
-	protected FloatBuffer modelBuf = MemoryUtil.memAllocFloat(16);
+	protected FloatBuffer[] colorBufs = new FloatBuffer[MAX_COLORS]; // from colorPool
+	private static NativeArena colorPool = NativeArena.pool("Shape3D.colorBufs");
+	// temporaries of one setData; closed when the data is loaded
+	private static NativeArena scratch = NativeArena.scoped("Shape3D.setData");
+
+	// ------------------ mesh arrays passed to setData ----------------------
+	// Kept by reference (not copied) so shapes built from the same arrays
+	// can be recognized as sharing a mesh.
+	protected int meshVertices = 0;
+	protected float[] meshPositions = null;
+	protected float[] meshNormals = null;
+	protected float[] meshColors = null;
+	protected byte[] meshIndexes = null; // native order, meshIndexType wide
+	protected int meshIndexType = GL_UNSIGNED_BYTE;
+	protected int meshPrimitive = GL_TRIANGLES; // GL_TRIANGLE_STRIP for ds
 
 	/// -----Object counter for shared VBO
 	private static int objectCounter = 0;
 	private static int Counter = 0;
+	protected int objectIndex = -1; // 0-based creation order
 
 	// ------------------ Constructors ----------------------------------
 	/**
@@ -135,6 +218,7 @@ abstract public class Shape3D {
 	 */
 	public Shape3D() {
 		UtilsLWJGL.glError("--->Shape3D"); // clear old glerrors
+		objectIndex = objectCounter;
 		shapeCount++;
 		shaderPgm = LWJGL.shaderProgram;
 		for (int i = 0; i < colors.length; i++) // fill arrays with null
@@ -147,7 +231,8 @@ abstract public class Shape3D {
 		setSize(1, 1, 1);
 		setRotate(0, 0, 1, 0);
 
-		psv_flag = glGetUniformLocation(shaderPgm, "psv_flag");
+		program = ShaderProgram.of(shaderPgm);
+		psv_flag = program.uniform("psv_flag");
 
 		// ------------- Setup GLSL interface variables -------------
 		createGLSLvars(); // uniform variables needed by Shapes
@@ -158,14 +243,25 @@ abstract public class Shape3D {
 		UtilsLWJGL.glError("<---Shape3D"); // clean out old errors
 	}
 
-	// ------------------------ finalize -----------------------------
+	// ------------------------ close -----------------------------
+	/**
+	 * Return the color buffers to the pool; the shape must not be used
+	 * afterwards.
+	 */
+	public void close() {
+		for (int i = 0; i < colorBufs.length; i++) {
+			colorPool.free(colorBufs[i]);
+			colorBufs[i] = null;
+		}
+	}
+
+	// ------------------------ closeAll -----------------------------
 	/**
-	 * The colBuffer object is allocated by MemoryUtil and is not garbage
-	 * collected. So, we need to free that memory when the Shape3D object
-	 * disappears.
+	 * Free the color buffer pool, spare buffers included, once every shape
+	 * is closed.
 	 */
-	public void finalize() {
-		MemoryUtil.memFree(colorBuffer);
+	static void closeAll() {
+		colorPool.close();
 	}
 
 	// ------------------------- createGLSLvars ---------------------------
@@ -176,54 +272,85 @@ abstract public class Shape3D {
 	protected void createGLSLvars() {
 		UtilsLWJGL.glError("--->Shape3D.createGLSLvars"); // clear old glerrors
 
-		// Create a vertex array object and save as an instance variable
-		vaoId = glGenVertexArrays();
+		// instanced and multi-draw shapes are drawn from buffers owned by
+		// a Scene renderer; they need no per-object VAO or VBOs.
+		if (Shape3D.sceneOwnsBuffers()) {
+			UtilsLWJGL.glError("<---Shape3D.createGLSLvars"); // check for glerrors
+			return;
+		}
+
+		// Create a vertex array object and save as an instance variable.
+		// Shared modes get theirs from the mesh layout in setData.
+		if (!Shape3D.sharedBuffers())
+			vaoId = UtilsLWJGL.genVertexArray();
+		resourceGeneration++;
 
 		// create attribute location references
-		vPosition = glGetAttribLocation(shaderPgm, "vPosition");
-		vNormal = glGetAttribLocation(shaderPgm, "vNormal");
-		vColor = glGetAttribLocation(shaderPgm, "vColor");
+		vPosition = program.attribute("vPosition");
+		vNormal = program.attribute("vNormal");
+		vColor = program.attribute("vColor");
 
-		// create glGenBuffers for each ease based on the boolean values
+		// create glGenBuffers for each ease based on the boolean values;
+		// with kb the buffers are the staging batch's (describeBatched)
 		// Unshared Apart Buffers
-		if (Shape3D.unSharedApartBuffers) {
-			posVBO = glGenBuffers();
-			normalVBO = glGenBuffers();
-			colorVBO = glGenBuffers();
-			indexVBO = glGenBuffers();
-			// shared Apart Buffers
-		} else if (Shape3D.sharedApartBuffers) {
-			if (Shape3D.objectCounter == 0) {
-				Shape3D.posVBO_static = glGenBuffers();
-				Shape3D.normalVBO_static = glGenBuffers();
-				Shape3D.indexVBO_static = glGenBuffers();
-			}
-			colorVBO = glGenBuffers();
+		if (Shape3D.stagingBatch == null && Shape3D.unSharedApartBuffers) {
+			posVBO = UtilsLWJGL.genBuffer();
+			normalVBO = UtilsLWJGL.genBuffer();
+			colorVBO = UtilsLWJGL.genBuffer();
+			indexVBO = UtilsLWJGL.genBuffer();
 		}
 		// Unshared jointbuffers
-		else if (Shape3D.unSharedJointBuffers) {
-			Shape3D.combinedVBO = glGenBuffers();
-			colorVBO = glGenBuffers();
+		else if (Shape3D.stagingBatch == null && Shape3D.unSharedJointBuffers) {
+			Shape3D.combinedVBO = UtilsLWJGL.genBuffer();
+			colorVBO = UtilsLWJGL.genBuffer();
 		}
+		// shared Apart and shared Joint buffers are created per mesh layout
+		// by useSharedLayout
 
-		// Shared Joint buffers
-		else if (Shape3D.sharedJointBuffers) {
-			if (Shape3D.objectCounter == 0) {
-				Shape3D.combinedVBO_static = glGenBuffers();
-			}
-			colorVBO = glGenBuffers();
-		}
+		if (!Shape3D.sharedBuffers())
+			describeModelSource();
 
 		// create uniform variables
-		uModel = glGetUniformLocation(shaderPgm, "uModel");
-		uColor = glGetUniformLocation(shaderPgm, "uColor");
+		uModel = program.uniform("uModel");
+		uColor = program.uniform("uColor");
 
 		float[] rgba = colors[0].get4f(); // get rgba as an array
-		glUniform4fv(uColor, rgba);
+		program.set4f(uColor, rgba);
 
 		UtilsLWJGL.glError("<---Shape3D.createGLSLvars"); // check for glerrors
 	}
 
+	// ------------------------- sceneOwnsBuffers ---------------------------
+	/**
+	 * True when the draw option builds its GL buffers for the whole Scene
+	 * (di, dm, db) instead of per Shape3D.
+	 */
+	static boolean sceneOwnsBuffers() {
+		return useInstancing || useMultiDraw || useStaticBatch;
+	}
+
+	// ------------------------- sharedBuffers ---------------------------
+	/**
+	 * True for the buffer options whose vertex data is shared by instances
+	 * (bsa, bsj).
+	 */
+	static boolean sharedBuffers() {
+		return sharedApartBuffers || sharedJointBuffers;
+	}
+
+	// ------------------------- meshKey ---------------------------
+	/**
+	 * A key that is equal for shapes built from the same mesh arrays. The
+	 * arrays are compared by identity: Arrays.asList equality falls back on
+	 * the arrays' own equals. So that the key survives the conversions
+	 * setData applies (go, ds, lc), each converter caches its output by the
+	 * identity of its input arrays and hands every shape built from the same
+	 * arrays the same output arrays.
+	 */
+	java.util.List<Object> meshKey() {
+		return Arrays.asList((Object) meshPositions, meshNormals, meshColors, meshIndexes);
+	}
+
 	// ++++++++++++++++++++++ public methods ++++++++++++++++++++++++++++++=
 	// ------------ redraw() ----------------------------
 	/**
@@ -234,32 +361,132 @@ abstract public class Shape3D {
 	 * process the glDrawArrays call.
 	 */
 	protected void redraw() {
-		if (modelNeedsUpdate)
-			updateModelMatrix();
+		int baseInstance = uploadModel();
+
+		// identify which VAO specification needs to be drawn. Nothing is
+		// unbound after the draw: GLState skips the bind when consecutive
+		// shapes share a VAO, and the element buffer when the VAO has it.
+		GLState.bindVertexArray(vaoId);
+		// indexVBO is per object for unshared, per layout for shared
+		if (Shape3D.drawsFromIndexBuffer())
+			GLState.bindBuffer(GL_ELEMENT_ARRAY_BUFFER, indexVBO);
+		drawGeometry(baseInstance);
+	}
 
-		glUniformMatrix4fv(uModel, false, modelBuf);
+	// ------------ uploadModel() ----------------------------
+	/**
+	 * Get this shape's model matrix to the shader and return the
+	 * baseInstance to draw with, or -1 for a plain draw.
+	 */
+	int uploadModel() {
+
+		// with the store the matrix is already in the storage buffer (see
+		// ModelStore.update) and baseInstance selects it. With the ring, the
+		// matrix is written to mapped memory and picked up by iModel at
+		// baseInstance; otherwise it's a uniform upload.
+		if (modelStore != null && modelStore.holds(objectIndex))
+			return objectIndex;
+		if (modelRing != null && modelRing.holds(objectIndex))
+			return modelRing.put(objectIndex, this);
+		program.setMatrix4f(uModel, transforms.matrix(transform));
+		return -1;
+	}
 
-		// identify which VAO specification needs to be drawn.
-		glBindVertexArray(vaoId);
+	// ------------ drawGeometry() ----------------------------
+	/**
+	 * Issue the draw call; the caller has bound the VAO and, in de mode,
+	 * the index buffer.
+	 */
+	void drawGeometry(int baseInstance) {
 		if (Shape3D.useElements) {
-			// draw elements
-			// indexVbo for unshared incase of drawelemnts
-			if (Shape3D.unSharedApartBuffers) {
-				glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, indexVBO);
-			}
-
-			// indexVBO_static for shared apart buffers
-			else if (Shape3D.sharedApartBuffers) {
-				glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, indexVBO_static);
-			}
-			glDrawElements(GL_TRIANGLES, noOfIndex, GL_UNSIGNED_BYTE, 0);
+			// draw elements; strips are separated by the type's restart index
+			if (meshPrimitive == GL_TRIANGLE_STRIP)
+				setRestartIndex(meshIndexType);
+			if (baseInstance >= 0)
+				glDrawElementsInstancedBaseInstance(meshPrimitive, noOfIndex, meshIndexType, indexOffset, 1,
+						baseInstance);
+			else
+				glDrawElements(meshPrimitive, noOfIndex, meshIndexType, indexOffset);
 			// draw arrays
+		} else if (baseInstance >= 0) {
+			glDrawArraysInstancedBaseInstance(meshPrimitive, 0, nVertices, 1, baseInstance);
 		} else {
-			glDrawArrays(GL_TRIANGLES, 0, nVertices);
+			glDrawArrays(meshPrimitive, 0, nVertices);
 		}
+	}
 
-		// unbind the vao, we are done with it for now.
-		glBindVertexArray(0);
+	// ------------ setRestartIndex() ----------------------------
+	/**
+	 * Make the restart index the one for strips of the given index type.
+	 */
+	static void setRestartIndex(int type) {
+		if (type != restartIndexType) {
+			glPrimitiveRestartIndex(Stripifier.restartIndex(type));
+			restartIndexType = type;
+		}
+	}
+
+	// ------------ record() ----------------------------
+	/**
+	 * What redraw does, written to a command stream instead of GL (op).
+	 * Reads only, so any thread may record once TransformStore.updateDirty
+	 * has run for the frame and until the shape or store changes again.
+	 */
+	void record(CommandBuffer commands) {
+		int baseInstance = -1;
+		if (modelStore != null && modelStore.holds(objectIndex))
+			baseInstance = objectIndex;
+		else
+			commands.modelMatrix(uModel, transforms, transform);
+		commands.bindVertexArray(vaoId);
+		if (Shape3D.drawsFromIndexBuffer())
+			commands.bindElementBuffer(indexVBO);
+		if (Shape3D.useElements) {
+			if (meshPrimitive == GL_TRIANGLE_STRIP)
+				commands.restartIndex(meshIndexType);
+			commands.drawElements(meshPrimitive, noOfIndex, meshIndexType, indexOffset, baseInstance);
+		} else
+			commands.drawArrays(meshPrimitive, 0, nVertices, baseInstance);
+	}
+
+	// ------------ drawsFromIndexBuffer() ----------------------------
+	/**
+	 * True if a draw must have the shape's indexVBO bound: glDrawElements
+	 * with the apart buffers (bua, bsa).
+	 */
+	static boolean drawsFromIndexBuffer() {
+		return useElements && (unSharedApartBuffers || sharedApartBuffers);
+	}
+
+	// ------------ endRedraws() ----------------------------
+	/**
+	 * Called after the last shape of a frame: unbind whatever VAO the last
+	 * shape left bound.
+	 */
+	static void endRedraws() {
+		GLState.bindVertexArray(0);
+	}
+
+	// ------------ getVaoId() ----------------------------
+	/**
+	 * The VAO this shape draws from; shared by all shapes of a layout in the
+	 * shared modes.
+	 */
+	int getVaoId() {
+		return vaoId;
+	}
+
+	// ------------ GL state getters for DrawList ----------------------------
+	int getShaderProgram() {
+		return shaderPgm;
+	}
+
+	int getIndexVBO() {
+		return indexVBO;
+	}
+
+	int getColorVBO() {
+		return colorVBO;
 	}
 
 	// ----------------------- get/setLocation --------------------------------
@@ -267,31 +494,28 @@ abstract public class Shape3D {
 	 * set location to the x,y,z position defined by the args
 	 */
 	public void setLocation(float x, float y, float z) {
-		xLoc = x;
-		yLoc = y;
-		zLoc = z;
-		modelNeedsUpdate = true;
+		transforms.setLocation(transform, x, y, z);
 	}
 
 	/**
 	 * return the value of the x origin of the shape
 	 */
 	public float getX() {
-		return xLoc;
+		return transforms.get(transform, TransformStore.TX);
 	}
 
 	/**
 	 * return the value of the y origin of the shape
 	 */
 	public float getY() {
-		return yLoc;
+		return transforms.get(transform, TransformStore.TY);
 	}
 
 	/**
 	 * return the value of the z origin of the shape
 	 */
 	public float getZ() {
-		return zLoc;
+		return transforms.get(transform, TransformStore.TZ);
 	}
 
 	/**
@@ -299,7 +523,7 @@ abstract public class Shape3D {
 	 */
 	public Vector3f getLocation() // return location as a Point
 	{
-		return new Vector3f(xLoc, yLoc, zLoc);
+		return new Vector3f(getX(), getY(), getZ());
 	}
 
 	// ----------------------- get/setColor methods ---------------------------
@@ -412,9 +636,10 @@ abstract public class Shape3D {
 		else
 			colors[i].setColor(r, g, b, a);
 
-		// make buffer!
-		colorBufs[i] = MemoryUtil.memAllocFloat(4);
-		colorBufs[i].put(r).put(g).put(b).put(a).flip();
+		// make buffer the first time; later colors reuse it
+		if (colorBufs[i] == null)
+			colorBufs[i] = colorPool.allocFloat(4);
+		colorBufs[i].put(0, r).put(1, g).put(2, b).put(3, a);
 		return true;
 	}
 
@@ -445,9 +670,14 @@ abstract public class Shape3D {
 	 * 
 	 */
 	public void setSize(float xs, float ys, float zs) {
-		xSize = xs;
-		ySize = ys;
-		zSize = zs;
+		transforms.setSize(transform, xs, ys, zs);
+	}
+
+	/**
+	 * return the largest of the three scale factors
+	 */
+	public float getMaxSize() {
+		return transforms.maxSize(transform);
 	}
 
 	/**
@@ -463,11 +693,7 @@ abstract public class Shape3D {
 	 *            float z axis direction
 	 */
 	public void setRotate(float a, float dx, float dy, float dz) {
-		angle = a;
-		dxRot = dx;
-		dyRot = dy;
-		dzRot = dz;
-		modelNeedsUpdate = true;
+		transforms.setRotate(transform, a, dx, dy, dz);
 	}
 
 	// ++++++++++++++++++++ protected methods +++++++++++++++++++++++++++++++
@@ -498,7 +724,35 @@ abstract public class Shape3D {
 	 *            float[] rs[t] floats for all texture coords
 	 */
 	protected void setData(int nVertices, float[] positions, float[] normals, float[] colors, float[] textureCoords) {
-		if (Shape3D.unSharedJointBuffers)
+		if (Shape3D.bakeLighting) {
+			colors = Lighting.bake(nVertices, normals, colors);
+			normals = null;
+		}
+		if (Shape3D.useElements && Shape3D.optimizeMeshes) {
+			MeshOptimizer.Mesh m = MeshOptimizer.optimize(nVertices, positions, normals, colors);
+			setData(m.nVertices, m.positions, m.indexes, m.indexType, m.normals, m.colors, textureCoords);
+		} else if (Shape3D.useTriangleStrips) {
+			Stripifier.Mesh m = Stripifier.arrayStrips(nVertices, positions, normals, colors);
+			loadArrays(m.nVertices, m.positions, m.normals, m.colors, textureCoords);
+			meshPrimitive = GL_TRIANGLE_STRIP;
+		} else
+			loadArrays(nVertices, positions, normals, colors, textureCoords);
+	}
+
+	// ---------------------- loadArrays ---------------------------------
+	/**
+	 * setData for glDrawArrays data after any conversion.
+	 */
+	private void loadArrays(int nVertices, float[] positions, float[] normals, float[] colors, float[] textureCoords) {
+		setMesh(nVertices, positions, normals, colors, null, GL_UNSIGNED_BYTE);
+		resourceGeneration++;
+		if (Shape3D.sceneOwnsBuffers())
+			return; // a Scene renderer owns the buffers
+		if (Shape3D.sharedBuffers() && useSharedLayout())
+			return; // an earlier shape loaded this mesh
+		if (Shape3D.stagingBatch != null)
+			stageData(nVertices, positions, normals, colors, null);
+		else if (Shape3D.unSharedJointBuffers)
 			setData_bsj(nVertices, positions, normals, colors, textureCoords);
 		else if (Shape3D.sharedJointBuffers)
 			setData_bsj(nVertices, positions, normals, colors, textureCoords);
@@ -506,7 +760,7 @@ abstract public class Shape3D {
 			setDataUA(nVertices, positions, normals, colors, textureCoords);
 		else if (Shape3D.sharedApartBuffers)
 			setDataUA(nVertices, positions, normals, colors, textureCoords);
-
+		scratch.close(); // the data is in the VBOs
 	}
 
 	// -----------------------------Setdata for drawelements -------------
@@ -530,7 +784,42 @@ abstract public class Shape3D {
 	 */
 	protected void setData(int objectVertices, float[] vertices, byte[] indexes, float[] normals, float[] colors,
 			float[] textureCoords) {
-		if (Shape3D.unSharedApartBuffers)
+		setData(objectVertices, vertices, indexes, GL_UNSIGNED_BYTE, normals, colors, textureCoords);
+	}
+
+	/**
+	 * As above, with indexes of the given type (GL_UNSIGNED_BYTE, _SHORT or
+	 * _INT) packed in native byte order.
+	 */
+	protected void setData(int objectVertices, float[] vertices, byte[] indexes, int indexType, float[] normals,
+			float[] colors, float[] textureCoords) {
+		if (Shape3D.bakeLighting) {
+			colors = Lighting.bake(objectVertices, normals, colors);
+			normals = null;
+		}
+		if (Shape3D.useTriangleStrips) {
+			Stripifier.Mesh m = Stripifier.elementStrips(objectVertices, indexes, indexType);
+			loadElements(objectVertices, vertices, m.indexes, m.indexType, normals, colors, textureCoords);
+			meshPrimitive = GL_TRIANGLE_STRIP;
+		} else
+			loadElements(objectVertices, vertices, indexes, indexType, normals, colors, textureCoords);
+	}
+
+	// ---------------------- loadElements ---------------------------------
+	/**
+	 * setData for glDrawElements data after any conversion.
+	 */
+	private void loadElements(int objectVertices, float[] vertices, byte[] indexes, int indexType, float[] normals,
+			float[] colors, float[] textureCoords) {
+		setMesh(objectVertices, vertices, normals, colors, indexes, indexType);
+		resourceGeneration++;
+		if (Shape3D.sceneOwnsBuffers())
+			return; // a Scene renderer owns the buffers
+		if (Shape3D.sharedBuffers() && useSharedLayout())
+			return; // an earlier shape loaded this mesh
+		if (Shape3D.stagingBatch != null)
+			stageData(objectVertices, vertices, normals, colors, indexes);
+		else if (Shape3D.unSharedApartBuffers)
 			setDataUA(objectVertices, vertices, normals, colors, textureCoords, indexes);
 		else if (Shape3D.sharedApartBuffers)
 			setDataUA(objectVertices, vertices, normals, colors, textureCoords, indexes);
@@ -546,10 +835,154 @@ abstract public class Shape3D {
 		// if (Shape3D.interleaved)
 		// setDatainterleaved(nVertices, positions, normals, colors,
 		// textureCoords);
-
+		scratch.close(); // the data is in the VBOs
 	}
 
 	// ++++++++++++++++++++ private methods +++++++++++++++++++++++++++++++
+	// ---------------------- setMesh -------------------------------------
+	/**
+	 * Remember the arrays this shape was defined from. Index array is null
+	 * for glDrawArrays data.
+	 */
+	private void setMesh(int nVerts, float[] pos, float[] norms, float[] colors, byte[] indexes, int indexType) {
+		meshVertices = nVerts;
+		meshPositions = pos;
+		meshNormals = norms;
+		meshColors = colors;
+		meshIndexes = indexes;
+		meshIndexType = indexType;
+		meshPrimitive = GL_TRIANGLES;
+	}
+
+	// ---------------------- meshIndexCount/meshIndex ----------------------
+	/**
+	 * Number of indexes in meshIndexes.
+	 */
+	int meshIndexCount() {
+		if (meshIndexes == null)
+			return 0;
+		if (meshIndexType == GL_UNSIGNED_INT)
+			return meshIndexes.length / 4;
+		if (meshIndexType == GL_UNSIGNED_SHORT)
+			return meshIndexes.length / 2;
+		return meshIndexes.length;
+	}
+
+	/**
+	 * The i-th index of meshIndexes as an unsigned value.
+	 */
+	int meshIndex(int i) {
+		if (meshIndexType == GL_UNSIGNED_INT)
+			return ByteBuffer.wrap(meshIndexes).order(ByteOrder.nativeOrder()).getInt(4 * i);
+		if (meshIndexType == GL_UNSIGNED_SHORT)
+			return ByteBuffer.wrap(meshIndexes).order(ByteOrder.nativeOrder()).getShort(2 * i) & 0xffff;
+		return meshIndexes[i] & 0xff;
+	}
+
+	// ---------------------- useSharedLayout -----------------------------
+	/**
+	 * Shared modes: adopt the VAO and color buffer of an earlier shape with
+	 * the same mesh and return true, or create them (and fresh shared
+	 * position/normal buffers, which each layout needs for its own normals)
+	 * and return false so the caller loads the data once.
+	 */
+	private boolean useSharedLayout() {
+		SharedLayout layout = sharedLayouts.get(meshKey());
+		if (layout != null) {
+			vaoId = layout.vaoId;
+			colorVBO = layout.colorVBO;
+			indexVBO = layout.indexVBO;
+			nVertices = meshVertices;
+			nTriangles = meshVertices / 3;
+			if (meshIndexes != null)
+				noOfIndex = meshIndexCount();
+			return true;
+		}
+		layout = new SharedLayout();
+		vaoId = layout.vaoId = UtilsLWJGL.genVertexArray();
+		if (Shape3D.sharedApartBuffers) {
+			Shape3D.posVBO_static = UtilsLWJGL.genBuffer();
+			Shape3D.normalVBO_static = UtilsLWJGL.genBuffer();
+			if (meshIndexes != null)
+				Shape3D.indexVBO_static = UtilsLWJGL.genBuffer();
+			indexVBO = layout.indexVBO = Shape3D.indexVBO_static;
+		} else {
+			Shape3D.combinedVBO_static = UtilsLWJGL.genBuffer();
+		}
+		colorVBO = layout.colorVBO = UtilsLWJGL.genBuffer();
+		describeModelSource();
+		sharedLayouts.put(meshKey(), layout);
+		return false;
+	}
+
+	// ---------------------- stageData -----------------------------------
+	/**
+	 * kb: append the arrays to the staging batch instead of loading them;
+	 * the GL side is done for all shapes at once by the batch's upload and
+	 * describeBatched.
+	 */
+	private void stageData(int nVerts, float[] pos, float[] norms, float[] colors, byte[] indexes) {
+		if (vPosition == -1)
+			System.err.println("***** vPosition attribute is undefined!");
+		nVertices = nVerts;
+		nTriangles = nVerts / 3;
+		coordSize = pos.length / nVerts;
+		normalSize = norms == null || vNormal == -1 ? 0 : norms.length / nVerts;
+		colorSize = colors == null || vColor == -1 ? 0 : colors.length / nVerts;
+		stagedOffsets = new long[3];
+		stagedOffsets[VertexPacker.POSITION] = stagingBatch.add(this, pos, nVerts, coordSize, VertexPacker.POSITION);
+		stagedOffsets[VertexPacker.NORMAL] = normalSize == 0 ? -1
+				: stagingBatch.add(this, norms, nVerts, normalSize, VertexPacker.NORMAL);
+		stagedOffsets[VertexPacker.COLOR] = colorSize == 0 ? -1
+				: stagingBatch.add(this, colors, nVerts, colorSize, VertexPacker.COLOR);
+		if (indexes != null) {
+			noOfIndex = meshIndexCount();
+			indexOffset = stagingBatch.addIndexes(indexes);
+		}
+	}
+
+	// ---------------------- describeBatched -------------------------------
+	/**
+	 * kb: point this shape's VAO at its data in the uploaded batch; vbo holds
+	 * the vertices of every shape, ibo their indexes.
+	 */
+	void describeBatched(int vbo, int ibo) {
+		GLState.bindVertexArray(vaoId);
+		GLState.bindBuffer(GL_ARRAY_BUFFER, vbo);
+		int[] locations = { vPosition, vNormal, vColor };
+		int[] sizes = { coordSize, normalSize, colorSize };
+		for (int kind = 0; kind < 3; kind++) {
+			long offset = stagedOffsets[kind];
+			if (offset < 0 || locations[kind] == -1)
+				continue;
+			if (Shape3D.compactVertices)
+				VertexPacker.describe(locations[kind], kind, offset);
+			else {
+				GLState.enableVertexAttribArray(locations[kind]);
+				int size = Shape3D.useFour ? 4 : sizes[kind];
+				glVertexAttribPointer(locations[kind], size, GL_FLOAT, false, 0, offset);
+			}
+		}
+		posVBO = normalVBO = colorVBO = vbo;
+		if (meshIndexes != null) {
+			indexVBO = ibo;
+			GLState.bindBuffer(GL_ELEMENT_ARRAY_BUFFER, ibo);
+		}
+		stagedOffsets = null;
+	}
+
+	// ---------------------- describeModelSource ---------------------------
+	/**
+	 * Model matrices streamed through the ring or held in the store reach
+	 * the shader as instance attributes of this shape's VAO.
+	 */
+	private void describeModelSource() {
+		if (modelRing != null && modelRing.holds(objectIndex))
+			modelRing.describe(vaoId);
+		if (modelStore != null && modelStore.holds(objectIndex))
+			modelStore.describe(vaoId);
+	}
+
 	// ---------------------- setDataUA -----------------------------------
 	/**
 	 * Unshared Apart Buffers; implements default buffer handling. bua Share
@@ -588,6 +1021,11 @@ abstract public class Shape3D {
 	 * @param texCoords
 	 */
 	private void setData_bsj(int nVerts, float[] pos, float[] norms, float[] colors, float[] texCoords) {
+		if (norms == null) { // lc: the joint buffer holds only positions
+			setCoordNormdata(nVerts, pos, pos, null, colors, texCoords);
+			setVertexColorData(nVerts, colors);
+			return;
+		}
 		float[] combinedArray_ab = new float[pos.length + norms.length];
 		float[] combinedArray_ai = new float[pos.length + norms.length];
 		int p = 0;
@@ -658,21 +1096,25 @@ abstract public class Shape3D {
 		FloatBuffer combinedBuffer = null;
 		if (vPosition == -1)
 			System.err.println("***** vPosition attribute is undefined!");
-		combinedBuffer = MemoryUtil.memRealloc(combinedBuffer, combinedArray.length);
+		combinedBuffer = scratch.realloc(combinedBuffer, combinedArray.length);
 		coordSize = combinedArray.length / nVerts;
 		posSize = pos.length / nVerts;
 
 		nVertices = nVerts;
 		nTriangles = nVerts / 3;
-		if (vNormal == -1)
-			System.err.println("***** vNormal attribute undefined!");
-		normalSize = norms.length / nVerts;
+		if (norms == null)
+			normalSize = 0;
+		else {
+			if (vNormal == -1)
+				System.err.println("***** vNormal attribute undefined!");
+			normalSize = norms.length / nVerts;
+		}
 		combinedBuffer.put(combinedArray).flip();
 		// Check for buj, bsj
 		if (unSharedJointBuffers)
-			loadBuffer_joint(combinedBuffer, Shape3D.combinedVBO, vPosition, posSize, vNormal, normalSize, pos.length);
+			loadBuffer_joint(combinedBuffer, Shape3D.combinedVBO, vPosition, vNormal, posSize, normalSize, pos.length);
 		else if (sharedJointBuffers)
-			loadBuffer_joint(combinedBuffer, Shape3D.combinedVBO_static, vPosition, posSize, vNormal, normalSize,
+			loadBuffer_joint(combinedBuffer, Shape3D.combinedVBO_static, vPosition, vNormal, posSize, normalSize,
 					pos.length);
 
 	}
@@ -694,70 +1136,74 @@ abstract public class Shape3D {
 		// Could make buffer static and only allocate first time.
 		if (coords == null) // Unused feature or redefining a shape
 		{
-			MemoryUtil.memFree(coordBuffer);
+			scratch.free(coordBuffer);
 			coordBuffer = null;
 			coordSize = 0;
 			nTriangles = 0;
 		} else {
 			if (vPosition == -1)
 				System.err.println("***** vPosition attribute is undefined!");
-			coordBuffer = MemoryUtil.memRealloc(coordBuffer, coords.length);
+			coordBuffer = scratch.realloc(coordBuffer, coords.length);
 			coordSize = coords.length / nVerts;
 			nVertices = nVerts;
 			nTriangles = nVerts / 3;
 			coordBuffer.put(coords).flip();
 		}
 		if (Shape3D.unSharedApartBuffers) {
-			loadBuffer(coordBuffer, posVBO, vPosition, coordSize);
+			loadBuffer(coordBuffer, posVBO, vPosition, coordSize, VertexPacker.POSITION);
 		} else if (Shape3D.sharedApartBuffers) {
-			loadBuffer(coordBuffer, Shape3D.posVBO_static, vPosition, coordSize);
+			loadBuffer(coordBuffer, Shape3D.posVBO_static, vPosition, coordSize, VertexPacker.POSITION);
 		}
 	}
 
 	// ---------------------- setCoordData Draw Elements
 	// ----------------------------------extra argument is indexs
 	private void setCoordData(int nVerts, float[] coords, byte[] indexs) {
+		FloatBuffer coordBuffer = null;
+		ByteBuffer indexInfo = null;
 
 		if (coords == null || indexs == null) // Unused feature or redefining a
 												// shape
 		{
-			MemoryUtil.memFree(coordBuffer);
+			scratch.free(coordBuffer);
 			coordBuffer = null;
 			coordSize = 0;
 			nTriangles = 0;
-			MemoryUtil.memFree(indexInfo);
+			scratch.free(indexInfo);
 			indexInfo = null;
 			noOfIndex = 0;
 			nTriangles = 0;
 		} else {
 			if (vPosition == -1)
 				System.err.println("***** vPosition attribute is undefined!");
-			coordBuffer = MemoryUtil.memRealloc(coordBuffer, coords.length);
-			indexInfo = MemoryUtil.memRealloc(indexInfo, indexs.length);
+			coordBuffer = scratch.realloc(coordBuffer, coords.length);
+			indexInfo = scratch.realloc(indexInfo, indexs.length);
 			coordSize = coords.length / nVerts;
-			noOfIndex = indexs.length;
+			noOfIndex = meshIndexCount();
 			nVertices = nVerts;
 			nTriangles = nVerts;
 			coordBuffer.put(coords).flip();
 			indexInfo.put(indexs).flip();
 
-			// load buffer for draw elements
+			// load buffer for draw elements; the element binding is VAO
+			// state, so it is made in this shape's VAO and left there
 			if (Shape3D.unSharedApartBuffers) {
-
-				glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, indexVBO);
+				GLState.bindVertexArray(vaoId);
+				GLState.bindBuffer(GL_ELEMENT_ARRAY_BUFFER, indexVBO);
 				glBufferData(GL_ELEMENT_ARRAY_BUFFER, indexInfo, GL_STATIC_DRAW);
-				glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, 0);
+				vboBytes.put(indexVBO, (long) indexInfo.remaining());
 			} else if (Shape3D.sharedApartBuffers) {
-				glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, Shape3D.indexVBO_static);
+				GLState.bindVertexArray(vaoId);
+				GLState.bindBuffer(GL_ELEMENT_ARRAY_BUFFER, Shape3D.indexVBO_static);
 				glBufferData(GL_ELEMENT_ARRAY_BUFFER, indexInfo, GL_STATIC_DRAW);
-				glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, 0);
+				vboBytes.put(Shape3D.indexVBO_static, (long) indexInfo.remaining());
 			}
 
 		}
 		if (Shape3D.unSharedApartBuffers) {
-			loadBuffer(coordBuffer, posVBO, vPosition, coordSize);
+			loadBuffer(coordBuffer, posVBO, vPosition, coordSize, VertexPacker.POSITION);
 		} else if (Shape3D.sharedApartBuffers) {
-			loadBuffer(coordBuffer, Shape3D.posVBO_static, vPosition, coordSize);
+			loadBuffer(coordBuffer, Shape3D.posVBO_static, vPosition, coordSize, VertexPacker.POSITION);
 		}
 
 	}
@@ -778,20 +1224,20 @@ abstract public class Shape3D {
 		FloatBuffer normalBuffer = null;
 		// Could make buffer static and only allocate first time.
 		if (normals == null) {
-			MemoryUtil.memFree(normalBuffer);
+			scratch.free(normalBuffer);
 			normalBuffer = null;
 			normalSize = 0;
 		} else {
 			if (vNormal == -1)
 				System.err.println("***** vNormal attribute undefined!");
-			normalBuffer = MemoryUtil.memRealloc(normalBuffer, normals.length);
+			normalBuffer = scratch.realloc(normalBuffer, normals.length);
 			normalSize = normals.length / nVerts;
 			normalBuffer.put(normals).flip();
 		}
 		if (Shape3D.unSharedApartBuffers) {
-			loadBuffer(normalBuffer, normalVBO, vNormal, normalSize);
+			loadBuffer(normalBuffer, normalVBO, vNormal, normalSize, VertexPacker.NORMAL);
 		} else if (Shape3D.sharedApartBuffers) {
-			loadBuffer(normalBuffer, Shape3D.normalVBO_static, vNormal, normalSize);
+			loadBuffer(normalBuffer, Shape3D.normalVBO_static, vNormal, normalSize, VertexPacker.NORMAL);
 		}
 	}
 
@@ -809,27 +1255,29 @@ abstract public class Shape3D {
 	 *            vertex. If null is specified, deletes previous colors
 	 */
 	private void setVertexColorData(int nVerts, float[] colors) {
+		FloatBuffer colorBuffer = null;
 
 		// Could make buffer static and only allocate first time.
 		if (colors == null) // Unused feature for (temporarily) emptying a shape
 		{
-			MemoryUtil.memFree(this.colorBuffer);
+			scratch.free(colorBuffer);
 			colorBuffer = null;
 			colorSize = 0;
 			nTriangles = 0;
 		} else {
 			if (colorVBO == -1)
 				System.err.println("***** vColor attribute undefined!");
-			colorBuffer = MemoryUtil.memRealloc(colorBuffer, colors.length);
+			colorBuffer = scratch.realloc(colorBuffer, colors.length);
 			colorSize = colors.length / nVerts;
 			colorBuffer.put(colors).flip();
 		}
-		loadBuffer(colorBuffer, colorVBO, vColor, colorSize);
+		loadBuffer(colorBuffer, colorVBO, vColor, colorSize, VertexPacker.COLOR);
 	}
 
 	// ------------------ loadBuffer --------------------------------
 	/**
-	 * Send the specified buffer to its location in GPU.
+	 * Send the specified buffer to its location in GPU. With cp the floats
+	 * are packed by VertexPacker first.
 	 * 
 	 * @param buffer
 	 *            FloatBuffer buffer containing floats to be down loaded.
@@ -839,31 +1287,43 @@ abstract public class Shape3D {
 	 *            int id of attribute variable in shader
 	 * @param attrSize
 	 *            int number floats per attribute in buffer
+	 * @param kind
+	 *            int VertexPacker.POSITION, NORMAL or COLOR
 	 */
-	private void loadBuffer(FloatBuffer buffer, int vbo, int attrLoc, int attrSize) {
+	private void loadBuffer(FloatBuffer buffer, int vbo, int attrLoc, int attrSize, int kind) {
 		if (buffer == null || attrLoc == -1)
 			return;
 		UtilsLWJGL.glError("--->loadBuffer"); // clean out errs
-		glBindVertexArray(vaoId);
-
-		glBindBuffer(GL_ARRAY_BUFFER, vbo);
-		// fill it with the data from the buffer
-		glBufferData(GL_ARRAY_BUFFER, buffer, GL_STATIC_DRAW);
-
-		// describe how vPosition data can be found in the current buffer
-		glEnableVertexAttribArray(attrLoc);
-		if (Shape3D.useFour)
-			glVertexAttribPointer(attrLoc, 4, GL_FLOAT, false, 0, 0L);
-		else
-			glVertexAttribPointer(attrLoc, attrSize, GL_FLOAT, false, 0, 0L);
+		GLState.bindVertexArray(vaoId);
+
+		GLState.bindBuffer(GL_ARRAY_BUFFER, vbo);
+		int nVerts = buffer.remaining() / attrSize;
+		if (Shape3D.compactVertices) {
+			ByteBuffer packed = VertexPacker.pack(scratch, buffer, nVerts, attrSize, kind);
+			glBufferData(GL_ARRAY_BUFFER, packed, GL_STATIC_DRAW);
+			VertexPacker.describe(attrLoc, kind, 0L);
+			scratch.free(packed);
+			attributeBytes[kind] = VertexPacker.BYTES[kind];
+		} else {
+			// fill it with the data from the buffer
+			glBufferData(GL_ARRAY_BUFFER, buffer, GL_STATIC_DRAW);
+
+			// describe how vPosition data can be found in the current buffer
+			GLState.enableVertexAttribArray(attrLoc);
+			if (Shape3D.useFour)
+				glVertexAttribPointer(attrLoc, 4, GL_FLOAT, false, 0, 0L);
+			else
+				glVertexAttribPointer(attrLoc, attrSize, GL_FLOAT, false, 0, 0L);
+			attributeBytes[kind] = attrSize * 4;
+		}
+		vboBytes.put(vbo, (long) nVerts * attributeBytes[kind]);
 
-		glBindBuffer(GL_ARRAY_BUFFER, 0); // unbind the array buffer
-		glBindVertexArray(0);
 		UtilsLWJGL.glError("<---loadBuffer"); // clean out errs
 	}
 
 	/***
-	 * Send the specified joint buffer to its location in GPU
+	 * Send the specified joint buffer to its location in GPU. With cp the
+	 * positions and normals are packed by VertexPacker, still blocked.
 	 * 
 	 * @param buffer
 	 *            /CombinedBuffer
@@ -883,37 +1343,109 @@ abstract public class Shape3D {
 		if (buffer == null || attrLoc_pos == -1)
 			return;
 		UtilsLWJGL.glError("--->loadBuffer"); // clean out errs
-		glBindVertexArray(vaoId);
-
-		glBindBuffer(GL_ARRAY_BUFFER, vbo);
-		// fill it with the data from the buffer
-		glBufferData(GL_ARRAY_BUFFER, buffer, GL_STATIC_DRAW);
-
-		// describe how vPosition data can be found in the current buffer
-		glEnableVertexAttribArray(vPosition);
-		glEnableVertexAttribArray(vNormal);
-		glVertexAttribPointer(vPosition, 3, GL_FLOAT, false, 0, 0L);
-		glVertexAttribPointer(vNormal, 3, GL_FLOAT, false, 0, coords * 4);
-		glBindBuffer(GL_ARRAY_BUFFER, 0); // unbind the array buffer
-		glBindVertexArray(0);
+		GLState.bindVertexArray(vaoId);
+
+		GLState.bindBuffer(GL_ARRAY_BUFFER, vbo);
+		int nVerts = coords / attrSize_pos;
+		if (Shape3D.compactVertices) {
+			attributeBytes[VertexPacker.POSITION] = VertexPacker.BYTES[VertexPacker.POSITION];
+			attributeBytes[VertexPacker.NORMAL] = attrSize_norms == 0 ? 0 : VertexPacker.BYTES[VertexPacker.NORMAL];
+			int vertexBytes = attributeBytes[VertexPacker.POSITION] + attributeBytes[VertexPacker.NORMAL];
+			ByteBuffer packed = scratch.alloc(nVerts * vertexBytes);
+			ByteBuffer pos = VertexPacker.pack(scratch, buffer, nVerts, attrSize_pos, VertexPacker.POSITION);
+			packed.put(pos);
+			if (attrSize_norms > 0) {
+				buffer.position(coords);
+				ByteBuffer norms = VertexPacker.pack(scratch, buffer, nVerts, attrSize_norms, VertexPacker.NORMAL);
+				buffer.position(0);
+				packed.put(norms);
+				scratch.free(norms);
+			}
+			packed.flip();
+			glBufferData(GL_ARRAY_BUFFER, packed, GL_STATIC_DRAW);
+			VertexPacker.describe(vPosition, VertexPacker.POSITION, 0L);
+			if (attrSize_norms > 0)
+				VertexPacker.describe(vNormal, VertexPacker.NORMAL, pos.capacity());
+			scratch.free(pos);
+			scratch.free(packed);
+		} else {
+			// fill it with the data from the buffer
+			glBufferData(GL_ARRAY_BUFFER, buffer, GL_STATIC_DRAW);
+
+			// describe how vPosition data can be found in the current buffer
+			GLState.enableVertexAttribArray(vPosition);
+			glVertexAttribPointer(vPosition, 3, GL_FLOAT, false, 0, 0L);
+			if (attrSize_norms > 0) {
+				GLState.enableVertexAttribArray(vNormal);
+				glVertexAttribPointer(vNormal, 3, GL_FLOAT, false, 0, coords * 4);
+			}
+			attributeBytes[VertexPacker.POSITION] = attrSize_pos * 4;
+			attributeBytes[VertexPacker.NORMAL] = attrSize_norms * 4;
+		}
+		vboBytes.put(vbo, (long) nVerts
+				* (attributeBytes[VertexPacker.POSITION] + attributeBytes[VertexPacker.NORMAL]));
 		UtilsLWJGL.glError("<---loadBuffer"); // clean out errs
 	}
 
+	// ------------------------ reportVertexBytes -----------------------------
+	/**
+	 * Log the vertex format's bytes per vertex and the total bytes in the
+	 * shapes' vertex and index VBOs, to relate memory traffic to FPS.
+	 */
+	static void reportVertexBytes() {
+		if (vboBytes.isEmpty())
+			return;
+		long total = 0;
+		for (long bytes : vboBytes.values())
+			total += bytes;
+		int perVertex = attributeBytes[VertexPacker.POSITION] + attributeBytes[VertexPacker.NORMAL]
+				+ attributeBytes[VertexPacker.COLOR];
+		P3.log(String.format("Vertex format %s: %d bytes/vertex (position %d, normal %d, color %d), VBO bytes %d",
+				compactVertices ? "cp" : "float", perVertex, attributeBytes[VertexPacker.POSITION],
+				attributeBytes[VertexPacker.NORMAL], attributeBytes[VertexPacker.COLOR], total));
+	}
+
+	// ----------------------- setModelMatrix --------------------
+	/**
+	 * Install a model matrix computed elsewhere from this shape's location,
+	 * rotation and size (kp: SceneGenerator), 16 floats from offset in
+	 * Matrix4f.get order.
+	 */
+	void setModelMatrix(float[] m, int offset) {
+		transforms.setMatrix(transform, m, offset);
+	}
+
+	// ----------------------- modelNeedsUpdate --------------------
+	/**
+	 * True if the model matrix changed since the last frame: renderers that
+	 * keep a copy must take it again.
+	 */
+	boolean modelNeedsUpdate() {
+		return transforms.changed(transform);
+	}
+
 	// ----------------------- updateModelMatrix --------------------
-	// --------------------------------
 	/**
-	 * Update the model matrix and its buffer.
+	 * Bring the model matrix up to date now rather than in the next
+	 * TransformStore.updateDirty pass.
+	 */
+	void updateModelMatrix() {
+		transforms.update(transform);
+	}
+
+	// ----------------------- getModelMatrix --------------------
+	/**
+	 * Copy the current model matrix into buf at float index.
 	 */
-	private void updateModelMatrix() {
-		modelMatrix.identity();
-		modelMatrix.translate(xLoc, yLoc, zLoc);
-		modelMatrix.rotate(angle, dxRot, dyRot, dzRot);
-		modelMatrix.scale(xSize, ySize, zSize);
+	void getModelMatrix(int index, FloatBuffer buf) {
+		transforms.getMatrix(transform, index, buf);
+	}
 
-		float[] modelFloats = new float[16];
-		modelMatrix.get(modelFloats, 0);
-		modelBuf.put(modelFloats).flip();
-		modelNeedsUpdate = false;
+	/**
+	 * Set dest to the current model matrix.
+	 */
+	Matrix4f getModelMatrix(Matrix4f dest) {
+		return transforms.getMatrix(transform, dest);
 	}
 
 }
@@ -0,0 +1,347 @@
+
+/**
+ * ShapeBVH.java - a bounding volume hierarchy over the world bounds of a
+ *           Scene's shapes, used to cull shapes outside the view frustum (vf).
+ *
+ * A shape's bounds are the box around its location that holds its mesh
+ * under any rotation: the largest mesh vertex distance from the origin times
+ * the largest of its sizes. The tree is built top down by splitting the
+ * shapes at the median of the longest axis of their centers, so every node
+ * covers a contiguous range of the reordered shape array. Nodes are stored
+ * in preorder, children after their parent.
+ *
+ * Each frame cull() first refits: leaves holding a shape whose location,
+ * size or rotation changed (modelNeedsUpdate) recompute their bounds and the
+ * change is carried up to the root in one backwards pass over the nodes.
+ * The traversal then tests nodes against the frustum of
+ * projection * view * scene; a node fully inside marks its whole range
+ * visible without testing further, a node outside is skipped with all of
+ * its shapes. Visible shapes are stamped with the frame number.
+ *
+ * The leaves also serve as the spatially grouped shapes of occlusion
+ * culling (OcclusionCuller); each shape knows its leaf (Shape3D.bvhLeaf).
+ *
+ * 10/17/26 created for the vf visibility option.
+ * 10/17/26 leaves exposed as occlusion groups (vo).
+ */
+import java.util.*;
+
+import org.joml.FrustumIntersection;
+import org.joml.Matrix4f;
+
+public class ShapeBVH {
+	// ------------------ class variables ------------------------------
+	static final int LEAF_SIZE = 8; // max shapes in a leaf
+
+	// -------- culling accounting since last report; one scene is drawn a frame
+	private static long visibleShapes = 0;
+	private static long culledShapes = 0;
+	private static long cullNanos = 0;
+
+	// ------------------ instance variables ----------------------------
+	private int generation; // Shape3D.resourceGeneration when built
+	private Shape3D[] shapes; // reordered so each node covers a range
+	private float[] radius; // per shape, in shape order: mesh radius
+	private int[] leafOf; // per shape: its leaf node
+
+	// ---- nodes in preorder; a leaf has left == -1
+	private int nNodes = 0;
+	private float[] minX, minY, minZ, maxX, maxY, maxZ;
+	private int[] first, count, left, right, parent;
+	private boolean[] dirty;
+	private int[] leafFrame; // frame a leaf was last found in the frustum
+	private int boundsVersion = 0; // bumped by each refit that changed bounds
+
+	private int frame = 0;
+	private int[] stack;
+	private Matrix4f pvs = new Matrix4f();
+	private FrustumIntersection frustum = new FrustumIntersection();
+
+	// ------------------ constructor ------------------------
+	/**
+	 * Build the hierarchy over the shapes' current bounds.
+	 *
+	 * @param sceneShapes
+	 *            ArrayList<Shape3D> all shapes in the scene
+	 */
+	public ShapeBVH(ArrayList<Shape3D> sceneShapes) {
+		generation = Shape3D.resourceGeneration;
+		int n = sceneShapes.size();
+		shapes = sceneShapes.toArray(new Shape3D[n]);
+		radius = new float[n];
+		leafOf = new int[n];
+		HashMap<float[], Float> meshRadius = new HashMap<float[], Float>();
+		for (int i = 0; i < n; i++) {
+			Shape3D s = shapes[i];
+			Float r = meshRadius.get(s.meshPositions);
+			if (r == null) {
+				r = meshRadius(s);
+				meshRadius.put(s.meshPositions, r);
+			}
+			radius[i] = r;
+		}
+
+		// a split leaves at least LEAF_SIZE / 2 shapes on each side
+		int maxNodes = 2 * (n / (LEAF_SIZE / 2) + 1);
+		minX = new float[maxNodes];
+		minY = new float[maxNodes];
+		minZ = new float[maxNodes];
+		maxX = new float[maxNodes];
+		maxY = new float[maxNodes];
+		maxZ = new float[maxNodes];
+		first = new int[maxNodes];
+		count = new int[maxNodes];
+		left = new int[maxNodes];
+		right = new int[maxNodes];
+		parent = new int[maxNodes];
+		dirty = new boolean[maxNodes];
+		leafFrame = new int[maxNodes];
+
+		float[] center = new float[3 * n];
+		for (int i = 0; i < n; i++) {
+			center[3 * i] = shapes[i].getX();
+			center[3 * i + 1] = shapes[i].getY();
+			center[3 * i + 2] = shapes[i].getZ();
+		}
+		Integer[] perm = new Integer[n];
+		for (int i = 0; i < n; i++)
+			perm[i] = i;
+		int depth = build(perm, center, 0, n, -1, 0);
+		stack = new int[depth + 2];
+
+		// put shapes (and their radii) in tree order
+		Shape3D[] sorted = new Shape3D[n];
+		float[] sortedRadius = new float[n];
+		for (int i = 0; i < n; i++) {
+			sorted[i] = shapes[perm[i]];
+			sortedRadius[i] = radius[perm[i]];
+		}
+		shapes = sorted;
+		radius = sortedRadius;
+		for (int node = 0; node < nNodes; node++)
+			if (left[node] == -1)
+				for (int i = first[node]; i < first[node] + count[node]; i++) {
+					leafOf[i] = node;
+					shapes[i].bvhLeaf = node;
+				}
+		Arrays.fill(dirty, 0, nNodes, true);
+		refit();
+		System.err.println("Bounding volume hierarchy: " + nNodes + " nodes over " + n + " shapes, depth " + depth);
+	}
+
+	// ------------------------ isCurrent -----------------------------
+	/**
+	 * False once a shape's GL data (and so maybe its mesh) changed since the
+	 * tree was built.
+	 */
+	public boolean isCurrent() {
+		return generation == Shape3D.resourceGeneration;
+	}
+
+	// ------------------------ cull -----------------------------
+	/**
+	 * Refit moved shapes, then stamp every shape inside the frustum of
+	 * projection * view * scene with this frame's number.
+	 */
+	public void cull() {
+		long start = System.nanoTime();
+		frame++;
+		refitMoved();
+
+		frustum.set(SceneManager.projViewScene(pvs));
+		int visible = 0;
+		int top = 0;
+		if (nNodes > 0)
+			stack[top++] = 0;
+		while (top > 0) {
+			int node = stack[--top];
+			int result = frustum.intersectAab(minX[node], minY[node], minZ[node], maxX[node], maxY[node],
+					maxZ[node]);
+			if (result == FrustumIntersection.INSIDE || (result == FrustumIntersection.INTERSECT && left[node] == -1)) {
+				for (int i = first[node]; i < first[node] + count[node]; i++) {
+					shapes[i].visibleFrame = frame;
+					leafFrame[leafOf[i]] = frame;
+				}
+				visible += count[node];
+			} else if (result == FrustumIntersection.INTERSECT) {
+				stack[top++] = right[node];
+				stack[top++] = left[node];
+			}
+		}
+		visibleShapes += visible;
+		culledShapes += shapes.length - visible;
+		cullNanos += System.nanoTime() - start;
+	}
+
+	// ------------------------ refitMoved -----------------------------
+	/**
+	 * Refit the leaves of shapes whose location, size or rotation changed
+	 * and their ancestors. cull() does this itself.
+	 */
+	public void refitMoved() {
+		for (int i = 0; i < shapes.length; i++)
+			if (shapes[i].modelNeedsUpdate())
+				dirty[leafOf[i]] = true;
+		refit();
+	}
+
+	// ------------------------ isVisible -----------------------------
+	/**
+	 * True if the last cull() found the shape in the frustum.
+	 */
+	public boolean isVisible(Shape3D shape) {
+		return shape.visibleFrame == frame;
+	}
+
+	// ------------------------ node access for OcclusionCuller -------------
+	int nodeCount() {
+		return nNodes;
+	}
+
+	boolean isLeaf(int node) {
+		return left[node] == -1;
+	}
+
+	/**
+	 * True if the last cull() found some of the leaf's shapes in the frustum.
+	 */
+	boolean leafInFrustum(int node) {
+		return leafFrame[node] == frame;
+	}
+
+	/**
+	 * Changes whenever a refit moved some node's bounds.
+	 */
+	int boundsVersion() {
+		return boundsVersion;
+	}
+
+	/**
+	 * The node's box as { minX, minY, minZ, maxX, maxY, maxZ } in dst.
+	 */
+	float[] bounds(int node, float[] dst) {
+		dst[0] = minX[node];
+		dst[1] = minY[node];
+		dst[2] = minZ[node];
+		dst[3] = maxX[node];
+		dst[4] = maxY[node];
+		dst[5] = maxZ[node];
+		return dst;
+	}
+
+	// ------------------------ report -----------------------------
+	/**
+	 * Log visible and culled shapes and cull time per frame over the last
+	 * report interval and reset them.
+	 */
+	public static void report(int frames) {
+		float n = frames == 0 ? 1 : frames;
+		P3.log(String.format("Frustum cull per frame: visible %8.1f    culled %8.1f    cull (ms): %6.4f",
+				visibleShapes / n, culledShapes / n, cullNanos / 1.0e6f / n));
+		visibleShapes = 0;
+		culledShapes = 0;
+		cullNanos = 0;
+	}
+
+	// ++++++++++++++++++++ private methods +++++++++++++++++++++++++++++++
+	// ---------------------- build -----------------------------------
+	/**
+	 * Make the node for perm[lo..hi) and, if it holds more than a leaf's
+	 * worth of shapes, split it at the median of its longest center axis.
+	 * Returns the depth of the subtree.
+	 */
+	private int build(Integer[] perm, final float[] center, int lo, int hi, int up, int depth) {
+		int node = nNodes++;
+		first[node] = lo;
+		count[node] = hi - lo;
+		parent[node] = up;
+		left[node] = right[node] = -1;
+		if (hi - lo <= LEAF_SIZE)
+			return depth;
+
+		float[] min = { Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE };
+		float[] max = { -Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE };
+		for (int i = lo; i < hi; i++)
+			for (int k = 0; k < 3; k++) {
+				min[k] = Math.min(min[k], center[3 * perm[i] + k]);
+				max[k] = Math.max(max[k], center[3 * perm[i] + k]);
+			}
+		int axis = 0;
+		for (int k = 1; k < 3; k++)
+			if (max[k] - min[k] > max[axis] - min[axis])
+				axis = k;
+		final int a = axis;
+		Arrays.sort(perm, lo, hi, new Comparator<Integer>() {
+			public int compare(Integer p, Integer q) {
+				return Float.compare(center[3 * p + a], center[3 * q + a]);
+			}
+		});
+		int mid = (lo + hi) >>> 1;
+		left[node] = nNodes;
+		int dl = build(perm, center, lo, mid, node, depth + 1);
+		right[node] = nNodes;
+		int dr = build(perm, center, mid, hi, node, depth + 1);
+		return Math.max(dl, dr);
+	}
+
+	// ---------------------- refit -----------------------------------
+	/**
+	 * Recompute the bounds of dirty nodes. Children follow their parent in
+	 * the arrays, so one pass from the back sees every child before its
+	 * parent.
+	 */
+	private void refit() {
+		boolean changed = false;
+		for (int node = nNodes - 1; node >= 0; node--) {
+			if (!dirty[node])
+				continue;
+			dirty[node] = false;
+			changed = true;
+			if (left[node] == -1) {
+				minX[node] = minY[node] = minZ[node] = Float.MAX_VALUE;
+				maxX[node] = maxY[node] = maxZ[node] = -Float.MAX_VALUE;
+				for (int i = first[node]; i < first[node] + count[node]; i++) {
+					Shape3D s = shapes[i];
+					float r = radius[i] * s.getMaxSize();
+					float x = s.getX(), y = s.getY(), z = s.getZ();
+					minX[node] = Math.min(minX[node], x - r);
+					minY[node] = Math.min(minY[node], y - r);
+					minZ[node] = Math.min(minZ[node], z - r);
+					maxX[node] = Math.max(maxX[node], x + r);
+					maxY[node] = Math.max(maxY[node], y + r);
+					maxZ[node] = Math.max(maxZ[node], z + r);
+				}
+			} else {
+				int l = left[node];
+				int r = right[node];
+				minX[node] = Math.min(minX[l], minX[r]);
+				minY[node] = Math.min(minY[l], minY[r]);
+				minZ[node] = Math.min(minZ[l], minZ[r]);
+				maxX[node] = Math.max(maxX[l], maxX[r]);
+				maxY[node] = Math.max(maxY[l], maxY[r]);
+				maxZ[node] = Math.max(maxZ[l], maxZ[r]);
+			}
+			if (parent[node] >= 0)
+				dirty[parent[node]] = true;
+		}
+		if (changed)
+			boundsVersion++;
+	}
+
+	// ---------------------- meshRadius -----------------------------------
+	/**
+	 * Largest distance of a mesh vertex from the shape's origin.
+	 */
+	private static float meshRadius(Shape3D s) {
+		float[] pos = s.meshPositions;
+		if (pos == null || s.meshVertices == 0)
+			return 0;
+		int size = pos.length / s.meshVertices;
+		float r2 = 0;
+		for (int v = 0; v < s.meshVertices; v++) {
+			float x = pos[v * size], y = pos[v * size + 1], z = pos[v * size + 2];
+			r2 = Math.max(r2, x * x + y * y + z * z);
+		}
+		return (float) Math.sqrt(r2);
+	}
+}
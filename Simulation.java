@@ -0,0 +1,247 @@
+/**
+ * Simulation.java - scene state owned by its own thread, handed to the
+ *           render thread as triple-buffered snapshots (st).
+ *
+ * The simulation thread ticks at a fixed 60 Hz. Each tick it applies the
+ * keys posted since the last one, turns the scene (auto rotation), steps
+ * the Animator on its own copy of the TransformStore (wm), and writes a
+ * snapshot: the scene rotation and every model matrix. Nothing it touches
+ * is seen by the render thread except through a published snapshot.
+ *
+ * Handoff: three snapshots. The simulation writes the back one, then swaps
+ * it with the middle one, marked fresh, in one atomic getAndSet. The render
+ * thread takes the middle one in exchange for its front one only when it
+ * is fresh. Neither side waits for the other: a slow simulation leaves the
+ * renderer drawing the last snapshot again; a slow renderer skips
+ * snapshots. Keys go the other way through a lock-free queue.
+ *
+ * SIMCOST (environment, ms) adds that much busy work to each tick, to show
+ * that render FPS does not depend on simulation cost.
+ *
+ * 10/17/26 created for the st option.
+ */
+import static org.lwjgl.glfw.GLFW.*;
+
+import java.nio.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.LockSupport;
+
+public class Simulation implements Runnable {
+	// ------------------ class variables ------------------------------
+	static final String COST_ENV = "SIMCOST";
+	static final long TICK_NANOS = (long) (Animator.FRAME_SECONDS * 1e9);
+	private static final int FRESH = 4; // in middle: not yet taken
+
+	// ---------------- one published state ------------------------------
+	static class Snapshot {
+		long tick = -1;
+		float xRadians, yRadians, zRadians; // scene rotation
+		long objectsVersion = -1; // changes when the matrices do
+		FloatBuffer matrices; // 16 per object, as TransformStore keeps them
+	}
+
+	// ------------------ instance variables ----------------------------
+	private final TransformStore transforms; // the simulation's own copy
+	private final Animator animator; // null without wm
+	private final NativeArena memory = NativeArena.pool("Simulation");
+	private final Snapshot[] snapshots = new Snapshot[3];
+	private final AtomicInteger middle = new AtomicInteger(1); // index | FRESH
+	private int back = 0; // simulation thread only
+	private int front = 2; // render thread only
+	private final ConcurrentLinkedQueue<Integer> keys = new ConcurrentLinkedQueue<Integer>();
+	private final long costNanos;
+	private final float deltaRotate; // degrees per key
+	private Thread thread;
+	private volatile boolean running = false;
+
+	// -------- simulation thread state
+	private float xRadians = 0, yRadians = 0, zRadians = 0;
+	private boolean autoRotation;
+	private long tick = 0;
+	private long objectsVersion = 0;
+
+	// -------- accounting since last report
+	private final AtomicLong ticks = new AtomicLong(); // from the simulation thread
+	private final AtomicLong stepNanos = new AtomicLong();
+	private long freshFrames = 0; // render thread
+	private long staleFrames = 0;
+
+	// ------------------ constructor ------------------------
+	/**
+	 * Take over the scene state: a copy of the shapes' transforms and the
+	 * current rotation settings.
+	 */
+	Simulation(TransformStore shapes, boolean moving, boolean autoRotation, float deltaRotate) {
+		transforms = shapes.copy();
+		animator = moving ? new Animator(transforms, ForkJoinPool.commonPool(), 2) : null;
+		this.autoRotation = autoRotation;
+		this.deltaRotate = deltaRotate;
+		for (int i = 0; i < 3; i++) {
+			snapshots[i] = new Snapshot();
+			snapshots[i].matrices = memory.allocFloat(transforms.size() * TransformStore.MATRIX_FLOATS);
+		}
+		long cost = 0;
+		String env = System.getenv(COST_ENV);
+		if (env != null) {
+			try {
+				cost = (long) (Float.parseFloat(env) * 1e6);
+			} catch (NumberFormatException e) {
+				System.err.println("***** " + COST_ENV + "=" + env + " is not a number; no added cost");
+			}
+		}
+		costNanos = cost;
+		System.err.println("Simulation thread: " + transforms.size() + " objects, "
+				+ (animator != null ? "moving" : "static") + ", added cost " + costNanos / 1e6 + " ms/tick");
+	}
+
+	// ------------------------ start -----------------------------
+	void start() {
+		running = true;
+		thread = new Thread(this, "simulation");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	// ------------------------ close -----------------------------
+	/**
+	 * Stop the thread and free the snapshots and the transform copy.
+	 */
+	public void close() {
+		running = false;
+		if (thread != null) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		memory.close();
+		transforms.close();
+	}
+
+	// ------------------------ animator -----------------------------
+	/**
+	 * The Animator the simulation steps (wm), for its report; null if static.
+	 */
+	Animator animator() {
+		return animator;
+	}
+
+	// ------------------------ post -----------------------------
+	/**
+	 * A key event for the simulation; any thread, never blocks.
+	 */
+	void post(int key, int action) {
+		keys.offer(key * 8 + action);
+	}
+
+	// ------------------------ latest -----------------------------
+	/**
+	 * The newest published snapshot, or the one from the last call if
+	 * nothing new was published; null before the first. Render thread only.
+	 */
+	Snapshot latest() {
+		if ((middle.get() & FRESH) != 0) {
+			front = middle.getAndSet(front) & 3;
+			freshFrames++;
+		} else
+			staleFrames++;
+		Snapshot s = snapshots[front];
+		return s.tick < 0 ? null : s;
+	}
+
+	// ------------------------ run -----------------------------
+	/**
+	 * The simulation thread: tick at a fixed rate until closed.
+	 */
+	public void run() {
+		long next = System.nanoTime();
+		while (running) {
+			long start = System.nanoTime();
+			step();
+			publish();
+			ticks.incrementAndGet();
+			stepNanos.addAndGet(System.nanoTime() - start);
+			next += TICK_NANOS;
+			long wait = next - System.nanoTime();
+			if (wait > 0)
+				LockSupport.parkNanos(wait);
+			else
+				next = System.nanoTime(); // behind: don't try to catch up
+		}
+	}
+
+	// ------------------------ report -----------------------------
+	/**
+	 * Log simulation ticks and step time, and how many rendered frames got
+	 * a new snapshot, over the last report interval; reset the counts.
+	 */
+	public void report(int frames) {
+		long t = ticks.getAndSet(0);
+		long ns = stepNanos.getAndSet(0);
+		long drawn = freshFrames + staleFrames;
+		P3.log(String.format(
+				"Simulation: %d ticks, step (ms) %7.3f    frames with a new snapshot %5.1f%%",
+				t, t == 0 ? 0 : ns / 1e6 / t, drawn == 0 ? 0 : 100.0 * freshFrames / drawn));
+		freshFrames = 0;
+		staleFrames = 0;
+	}
+
+	// ++++++++++++++++++++ private methods +++++++++++++++++++++++++++++++
+	/**
+	 * One tick of simulation thread state.
+	 */
+	private void step() {
+		Integer k;
+		while ((k = keys.poll()) != null)
+			applyKey(k / 8, k % 8);
+		if (autoRotation)
+			zRadians += (float) Math.toRadians(1.0);
+		if (animator != null) {
+			animator.step();
+			transforms.endFrame();
+			objectsVersion++;
+		}
+		if (costNanos > 0) {
+			long until = System.nanoTime() + costNanos;
+			while (System.nanoTime() < until)
+				; // stand-in for simulation work
+		}
+		tick++;
+	}
+
+	/**
+	 * What SceneManager.keyHandler does for the keys the simulation owns.
+	 */
+	private void applyKey(int key, int action) {
+		boolean down = action == GLFW_PRESS || action == GLFW_REPEAT;
+		float delta = (float) Math.toRadians(deltaRotate);
+		if (key == GLFW_KEY_DOWN && down)
+			xRadians += delta;
+		else if (key == GLFW_KEY_UP && down)
+			xRadians -= delta;
+		else if (key == GLFW_KEY_LEFT && down)
+			yRadians -= delta;
+		else if (key == GLFW_KEY_RIGHT && down)
+			yRadians += delta;
+		else if (key == GLFW_KEY_SLASH && action == GLFW_RELEASE)
+			autoRotation = !autoRotation;
+	}
+
+	/**
+	 * Fill the back snapshot and swap it into the middle.
+	 */
+	private void publish() {
+		Snapshot s = snapshots[back];
+		s.tick = tick;
+		s.xRadians = xRadians;
+		s.yRadians = yRadians;
+		s.zRadians = zRadians;
+		if (s.objectsVersion != objectsVersion) {
+			transforms.copyMatrices(s.matrices);
+			s.objectsVersion = objectsVersion;
+		}
+		back = middle.getAndSet(back | FRESH) & 3;
+	}
+}
@@ -0,0 +1,158 @@
+
+/**
+ * StagingBatch.java - batched scene construction (kb): the per-shape data
+ *           of the unshared buffer modes is staged into one off-heap
+ *           buffer while the scene is built and uploaded with one
+ *           glBufferData; each shape's VAO then points at its offsets.
+ *
+ * Construction becomes three phases, timed separately:
+ *   CPU fill   shapes are created and setData appends their positions,
+ *              normals and colors (packed if cp) to the vertex staging
+ *              buffer and their indexes to the index staging buffer
+ *   upload     one glBufferData for each staging buffer
+ *   VAO setup  every shape describes its attributes at its offsets
+ * Shapes get no VBOs of their own, so both bua and buj become offsets
+ * into the one vertex buffer: per shape a position block, then normals,
+ * then colors.
+ *
+ * 10/17/26 created for the kb construction option.
+ * 10/17/26 staging buffers come from a scoped NativeArena.
+ */
+import static org.lwjgl.opengl.GL15.*;
+
+import java.nio.*;
+import java.util.*;
+
+
+public class StagingBatch {
+	// ------------------ class variables ------------------------------
+	private static final int INITIAL_BYTES = 1 << 20;
+
+	// ------------------ instance variables ----------------------------
+	private NativeArena arena = NativeArena.scoped("StagingBatch"); // closed by upload
+	private ByteBuffer vertices = arena.alloc(INITIAL_BYTES);
+	private ByteBuffer indexes = arena.alloc(INITIAL_BYTES / 4);
+	private ArrayList<Shape3D> shapes = new ArrayList<Shape3D>();
+	private int vbo = -1;
+	private int ibo = -1;
+	private long vertexBytes = 0;
+	private long indexBytes = 0;
+
+	// ------------------------ add -----------------------------
+	/**
+	 * Stage one attribute array of a shape; returns its byte offset in the
+	 * vertex buffer, or -1 if there is nothing to stage.
+	 *
+	 * @param shape
+	 *            Shape3D whose VAO will use the data
+	 * @param data
+	 *            float[] size floats per vertex, or null
+	 * @param nVerts
+	 *            int vertices in data
+	 * @param size
+	 *            int floats per vertex
+	 * @param kind
+	 *            int VertexPacker.POSITION, NORMAL or COLOR
+	 */
+	long add(Shape3D shape, float[] data, int nVerts, int size, int kind) {
+		if (data == null)
+			return -1;
+		if (shapes.isEmpty() || shapes.get(shapes.size() - 1) != shape)
+			shapes.add(shape);
+		long offset = vertices.position();
+		if (Shape3D.compactVertices) {
+			ByteBuffer packed = VertexPacker.pack(arena, FloatBuffer.wrap(data), nVerts, size, kind);
+			vertices = reserve(vertices, packed.remaining());
+			vertices.put(packed);
+			arena.free(packed);
+			Shape3D.attributeBytes[kind] = VertexPacker.BYTES[kind];
+		} else {
+			vertices = reserve(vertices, data.length * 4);
+			vertices.asFloatBuffer().put(data);
+			vertices.position(vertices.position() + data.length * 4);
+			Shape3D.attributeBytes[kind] = size * 4;
+		}
+		return offset;
+	}
+
+	// ------------------------ addIndexes -----------------------------
+	/**
+	 * Stage a shape's index array; returns its byte offset in the index
+	 * buffer.
+	 */
+	long addIndexes(byte[] data) {
+		long offset = indexes.position();
+		indexes = reserve(indexes, data.length);
+		indexes.put(data);
+		// keep every shape's indexes aligned for any index type
+		while (indexes.position() % 4 != 0)
+			indexes.put((byte) 0);
+		return offset;
+	}
+
+	// ------------------------ upload -----------------------------
+	/**
+	 * One glBufferData for the vertices and one for the indexes; frees the
+	 * staging buffers. Both are loaded through GL_ARRAY_BUFFER, since no
+	 * VAO is bound to hold an element binding yet.
+	 */
+	void upload() {
+		UtilsLWJGL.glError("--->StagingBatch.upload"); // clean out old errors
+		vertices.flip();
+		indexes.flip();
+		vertexBytes = vertices.remaining();
+		indexBytes = indexes.remaining();
+		vbo = UtilsLWJGL.genBuffer();
+		GLState.bindBuffer(GL_ARRAY_BUFFER, vbo);
+		glBufferData(GL_ARRAY_BUFFER, vertices, GL_STATIC_DRAW);
+		Shape3D.vboBytes.put(vbo, vertexBytes);
+		if (indexBytes > 0) {
+			ibo = UtilsLWJGL.genBuffer();
+			GLState.bindBuffer(GL_ARRAY_BUFFER, ibo);
+			glBufferData(GL_ARRAY_BUFFER, indexes, GL_STATIC_DRAW);
+			Shape3D.vboBytes.put(ibo, indexBytes);
+		}
+		arena.close();
+		vertices = null;
+		indexes = null;
+		UtilsLWJGL.glError("<---StagingBatch.upload"); // check for glerrors
+	}
+
+	// ------------------------ setupVAOs -----------------------------
+	/**
+	 * Point every staged shape's VAO at its data.
+	 */
+	void setupVAOs() {
+		UtilsLWJGL.glError("--->StagingBatch.setupVAOs"); // clean out old errors
+		for (Shape3D shape : shapes)
+			shape.describeBatched(vbo, ibo);
+		GLState.bindVertexArray(0);
+		UtilsLWJGL.glError("<---StagingBatch.setupVAOs"); // check for glerrors
+	}
+
+	// ------------------------ accessors -----------------------------
+	int shapeCount() {
+		return shapes.size();
+	}
+
+	long vertexBytes() {
+		return vertexBytes;
+	}
+
+	long indexBytes() {
+		return indexBytes;
+	}
+
+	// ++++++++++++++++++++ private methods +++++++++++++++++++++++++++++++
+	/**
+	 * buf with room for n more bytes, doubled as often as needed.
+	 */
+	private ByteBuffer reserve(ByteBuffer buf, int n) {
+		if (buf.remaining() >= n)
+			return buf;
+		int capacity = buf.capacity();
+		while (capacity - buf.position() < n)
+			capacity *= 2;
+		return arena.realloc(buf, capacity);
+	}
+}
@@ -0,0 +1,181 @@
+
+/**
+ * StaticBatchRenderer.java - pre-transforms all shapes of a Scene into one
+ *           vertex buffer and draws the whole scene with one glDrawElements (db).
+ *
+ * At build time every shape's model matrix (Shape3D.getModelMatrix) is
+ * applied to its mesh positions on the cpu and the results are concatenated,
+ * with rgba colors, into one VBO; the indexes are offset into one IBO. The
+ * shader then sees an identity uModel and no per-object state is touched
+ * during a frame.
+ *
+ * Normals are copied untransformed: evalDemo lights in object coordinates,
+ * so keeping them as-is gives the same shading as the per-object modes.
+ *
+ * A shape whose setLocation/setRotate/setSize marks it dirty is re-baked
+ * into its own range of the VBO on the next redraw; all dirty ranges of a
+ * frame are coalesced into one glBufferSubData. Frames in which no
+ * transform changed (TransformStore.anyChanged) skip the per-shape check.
+ *
+ * 10/17/26 created for the db draw option.
+ * 10/17/26 re-bake uploads through a kept view; redraw allocates nothing.
+ * 10/17/26 re-bakes and their upload counted for the wm breakdown.
+ * 10/17/26 no per-shape scan when nothing moved.
+ */
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL20.*;
+import static org.lwjgl.opengl.GL30.*;
+
+import java.nio.*;
+import java.util.*;
+
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+
+public class StaticBatchRenderer {
+	// ------------------ class variables ------------------------------
+	static final int VERTEX_FLOATS = 10; // xyz + xyz + rgba
+
+	// ------------------ instance variables ----------------------------
+	private ArrayList<Shape3D> shapes;
+	private int[] firstVertex; // per shape: first vertex in the batch
+	private int nIndexes = 0;
+
+	private int vaoId = -1;
+	private int vertexVBO = -1;
+	private int indexVBO = -1;
+	private FloatBuffer vertexBuf = null; // from memory; kept for re-bakes
+	private FloatBuffer range = null; // view of vertexBuf for re-bake uploads
+	private NativeArena memory = NativeArena.pool("StaticBatchRenderer"); // freed by close
+
+	private Vector3f scratch = new Vector3f();
+	private Matrix4f model = new Matrix4f(); // of the shape being baked
+
+	// ------------------ constructor ------------------------
+	/**
+	 * Bake every shape into the batch buffers and upload them.
+	 *
+	 * @param shapes
+	 *            ArrayList<Shape3D> all shapes in the scene
+	 */
+	public StaticBatchRenderer(ArrayList<Shape3D> shapes) {
+		UtilsLWJGL.glError("--->StaticBatchRenderer"); // clean out old errors
+		this.shapes = shapes;
+		int pgm = LWJGL.shaderProgram;
+		ShaderProgram program = ShaderProgram.of(pgm);
+
+		int nShapes = shapes.size();
+		firstVertex = new int[nShapes + 1];
+		for (int i = 0; i < nShapes; i++) {
+			Shape3D shape = shapes.get(i);
+			firstVertex[i + 1] = firstVertex[i] + shape.meshVertices;
+			nIndexes += shape.meshIndexes != null ? shape.meshIndexCount() : shape.meshVertices;
+		}
+
+		vertexBuf = memory.allocFloat(firstVertex[nShapes] * VERTEX_FLOATS);
+		range = vertexBuf.duplicate();
+		NativeArena temp = NativeArena.scoped("StaticBatchRenderer.build");
+		IntBuffer indexBuf = temp.allocInt(nIndexes);
+		for (int i = 0; i < nShapes; i++) {
+			Shape3D shape = shapes.get(i);
+			bake(i);
+			int base = firstVertex[i];
+			if (shape.meshIndexes != null)
+				for (int k = 0; k < shape.meshIndexCount(); k++)
+					indexBuf.put(base + shape.meshIndex(k));
+			else
+				for (int v = 0; v < shape.meshVertices; v++)
+					indexBuf.put(base + v);
+		}
+		indexBuf.flip();
+
+		vaoId = UtilsLWJGL.genVertexArray();
+		GLState.bindVertexArray(vaoId);
+		vertexVBO = UtilsLWJGL.genBuffer();
+		GLState.bindBuffer(GL_ARRAY_BUFFER, vertexVBO);
+		glBufferData(GL_ARRAY_BUFFER, vertexBuf, GL_DYNAMIC_DRAW);
+		int stride = VERTEX_FLOATS * 4;
+		MultiDrawRenderer.describeVertexAttrib(program.attribute("vPosition"), 3, stride, 0L);
+		MultiDrawRenderer.describeVertexAttrib(program.attribute("vNormal"), 3, stride, 12L);
+		MultiDrawRenderer.describeVertexAttrib(program.attribute("vColor"), 4, stride, 24L);
+		indexVBO = UtilsLWJGL.genBuffer();
+		GLState.bindBuffer(GL_ELEMENT_ARRAY_BUFFER, indexVBO); // VAO state
+		glBufferData(GL_ELEMENT_ARRAY_BUFFER, indexBuf, GL_STATIC_DRAW);
+		GLState.bindBuffer(GL_ARRAY_BUFFER, 0);
+		GLState.bindVertexArray(0);
+
+		// the model transform is in the vertices; the shader gets identity
+		FloatBuffer identity = temp.allocFloat(16);
+		new Matrix4f().get(identity);
+		program.setMatrix4f(program.uniform("uModel"), identity);
+		temp.close();
+
+		System.err.println("Static batch: " + firstVertex[nShapes] + " vertices, " + nIndexes + " indexes");
+		UtilsLWJGL.glError("<---StaticBatchRenderer"); // check for glerrors
+	}
+
+	// ------------------------ close -----------------------------
+	/**
+	 * Free vertexBuf; the renderer must not be used afterwards.
+	 */
+	public void close() {
+		memory.close();
+	}
+
+	// ------------------------ redraw -----------------------------
+	/**
+	 * Re-bake shapes that moved since the last frame, then draw the batch.
+	 */
+	public void redraw() {
+		long start = System.nanoTime();
+		int lo = Integer.MAX_VALUE;
+		int hi = -1;
+		int n = Shape3D.transforms.anyChanged() ? shapes.size() : 0;
+		for (int i = 0; i < n; i++) {
+			if (shapes.get(i).modelNeedsUpdate()) {
+				bake(i);
+				lo = Math.min(lo, i);
+				hi = i;
+			}
+		}
+		if (hi >= 0) {
+			range.clear();
+			range.limit(firstVertex[hi + 1] * VERTEX_FLOATS).position(firstVertex[lo] * VERTEX_FLOATS);
+			GLState.bindBuffer(GL_ARRAY_BUFFER, vertexVBO);
+			glBufferSubData(GL_ARRAY_BUFFER, firstVertex[lo] * VERTEX_FLOATS * 4L, range);
+			GLState.bindBuffer(GL_ARRAY_BUFFER, 0);
+			Animator.countUpload(start, range.remaining() * 4L);
+		}
+		GLState.bindVertexArray(vaoId);
+		glDrawElements(GL_TRIANGLES, nIndexes, GL_UNSIGNED_INT, 0L);
+		GLState.bindVertexArray(0);
+	}
+
+	// ++++++++++++++++++++ private methods +++++++++++++++++++++++++++++++
+	// ---------------------- bake -----------------------------------
+	/**
+	 * Write shape i's transformed vertices into its range of vertexBuf.
+	 */
+	private void bake(int i) {
+		Shape3D shape = shapes.get(i);
+		Matrix4f m = shape.getModelMatrix(model);
+		int n = shape.meshVertices;
+		float[] pos = shape.meshPositions;
+		float[] norms = shape.meshNormals;
+		float[] colors = shape.meshColors;
+		int posSize = pos.length / n;
+		int normSize = norms == null ? 0 : norms.length / n;
+		int colorSize = colors == null ? 0 : colors.length / n;
+
+		int at = firstVertex[i] * VERTEX_FLOATS;
+		for (int v = 0; v < n; v++) {
+			m.transformPosition(pos[v * posSize], pos[v * posSize + 1], pos[v * posSize + 2], scratch);
+			vertexBuf.put(at++, scratch.x).put(at++, scratch.y).put(at++, scratch.z);
+			for (int k = 0; k < 3; k++)
+				vertexBuf.put(at++, normSize == 0 ? 0 : norms[v * normSize + k]);
+			for (int k = 0; k < 4; k++)
+				vertexBuf.put(at++, k < colorSize ? colors[v * colorSize + k] : 1);
+		}
+	}
+}
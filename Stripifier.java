@@ -0,0 +1,294 @@
+
+/**
+ * Stripifier.java - converts triangle lists into GL_TRIANGLE_STRIP data
+ *           for the ds draw mode.
+ *
+ * Strips are grown greedily over shared edges. A strip starts at the unused
+ * triangle with the fewest unused neighbors, in whichever of its 3
+ * rotations grows longest, and is extended while some unused triangle has
+ * the edge the strip's winding needs next: strip triangle i is
+ * (v[i], v[i+1], v[i+2]) for even i and (v[i+1], v[i], v[i+2]) for odd i,
+ * so every triangle keeps its original facing.
+ *
+ * glDrawElements (de): strips are separated by the primitive restart index,
+ * the largest value of the index type, which is chosen so it is not a vertex.
+ * glDrawArrays (da): restart needs an index buffer, so the welded strips are
+ * expanded to vertices and joined with degenerate triangles instead
+ * (repeating the last vertex of one strip and the first of the next, plus
+ * one more when needed to keep the next strip's winding).
+ *
+ * The strip data (indexes, or expanded vertices for da) is kept per set of
+ * input arrays (Shape3D.meshKey).
+ *
+ * 10/17/26 created for the ds draw option.
+ */
+import static org.lwjgl.opengl.GL11.*;
+
+import java.nio.*;
+import java.util.*;
+
+public class Stripifier {
+	// ------------------ class variables ------------------------------
+	private static HashMap<List<Object>, Mesh> stripped = new HashMap<List<Object>, Mesh>();
+
+	// ---------------- strip data for Shape3D --------------------
+	static class Mesh {
+		int nVertices;
+		float[] positions; // for arrays; the input arrays for elements
+		float[] normals;
+		float[] colors;
+		byte[] indexes; // elements only: native order, indexType wide
+		int indexType;
+	}
+
+	// ------------------------ arrayStrips -----------------------------
+	/**
+	 * Strips for glDrawArrays from non-indexed triangle arrays. Vertices are
+	 * welded first (MeshOptimizer) so strips can follow shared edges.
+	 */
+	static Mesh arrayStrips(int nVerts, float[] pos, float[] norms, float[] colors) {
+		List<Object> key = Arrays.asList((Object) pos, norms, colors);
+		Mesh strip = stripped.get(key);
+		if (strip != null)
+			return strip;
+
+		MeshOptimizer.Mesh welded = MeshOptimizer.optimize(nVerts, pos, norms, colors);
+		ArrayList<int[]> strips = strips(welded.triangles, welded.nVertices);
+		int n = 0;
+		for (int[] s : strips) {
+			if (n > 0)
+				n += n % 2 == 0 ? 2 : 3; // degenerate join
+			n += s.length;
+		}
+		int[] stream = new int[n];
+		n = 0;
+		for (int[] s : strips) {
+			if (n > 0) {
+				int last = stream[n - 1];
+				if (n % 2 == 1)
+					stream[n++] = last;
+				stream[n++] = last;
+				stream[n++] = s[0];
+			}
+			System.arraycopy(s, 0, stream, n, s.length);
+			n += s.length;
+		}
+
+		strip = new Mesh();
+		strip.nVertices = n;
+		strip.positions = expand(welded.positions, welded.nVertices, stream);
+		strip.normals = expand(welded.normals, welded.nVertices, stream);
+		strip.colors = expand(welded.colors, welded.nVertices, stream);
+		P3.log(String.format("Triangle strips: %d triangles in %d strips; da vertices %d -> %d", nVerts / 3,
+				strips.size(), nVerts, n));
+		stripped.put(key, strip);
+		return strip;
+	}
+
+	// ------------------------ elementStrips -----------------------------
+	/**
+	 * Strips for glDrawElements from an indexed triangle list, with
+	 * primitive restart between strips.
+	 */
+	static Mesh elementStrips(int nVerts, byte[] indexes, int indexType) {
+		List<Object> key = Arrays.asList((Object) indexes);
+		Mesh strip = stripped.get(key);
+		if (strip != null)
+			return strip;
+
+		int[] triangles = decode(indexes, indexType);
+		ArrayList<int[]> strips = strips(triangles, nVerts);
+		int n = strips.size() - 1; // restart indexes
+		for (int[] s : strips)
+			n += s.length;
+
+		strip = new Mesh();
+		strip.indexType = nVerts < 0xff ? GL_UNSIGNED_BYTE : nVerts < 0xffff ? GL_UNSIGNED_SHORT : GL_UNSIGNED_INT;
+		int bytes = bytesPerIndex(strip.indexType);
+		strip.indexes = new byte[n * bytes];
+		ByteBuffer buf = ByteBuffer.wrap(strip.indexes).order(ByteOrder.nativeOrder());
+		int restart = restartIndex(strip.indexType);
+		for (int i = 0; i < strips.size(); i++) {
+			if (i > 0)
+				put(buf, restart, bytes);
+			for (int v : strips.get(i))
+				put(buf, v, bytes);
+		}
+		P3.log(String.format("Triangle strips: %d triangles in %d strips; de indexes %d -> %d, index bytes %d -> %d",
+				triangles.length / 3, strips.size(), triangles.length, n, indexes.length, strip.indexes.length));
+		stripped.put(key, strip);
+		return strip;
+	}
+
+	// ------------------------ restartIndex -----------------------------
+	/**
+	 * The primitive restart index for an index type: its largest value.
+	 */
+	static int restartIndex(int indexType) {
+		if (indexType == GL_UNSIGNED_BYTE)
+			return 0xff;
+		if (indexType == GL_UNSIGNED_SHORT)
+			return 0xffff;
+		return 0xffffffff;
+	}
+
+	// ------------------------ decode -----------------------------
+	/**
+	 * Unsigned index values from native order bytes of the given type.
+	 */
+	static int[] decode(byte[] indexes, int indexType) {
+		int bytes = bytesPerIndex(indexType);
+		ByteBuffer buf = ByteBuffer.wrap(indexes).order(ByteOrder.nativeOrder());
+		int[] out = new int[indexes.length / bytes];
+		for (int i = 0; i < out.length; i++) {
+			if (bytes == 1)
+				out[i] = buf.get(i) & 0xff;
+			else if (bytes == 2)
+				out[i] = buf.getShort(2 * i) & 0xffff;
+			else
+				out[i] = buf.getInt(4 * i);
+		}
+		return out;
+	}
+
+	// ++++++++++++++++++++ private methods +++++++++++++++++++++++++++++++
+	// ---------------------- strips -----------------------------------
+	/**
+	 * Cover the triangles with strips; each strip is its vertex list.
+	 */
+	private static ArrayList<int[]> strips(int[] tris, int nVerts) {
+		int nTris = tris.length / 3;
+		// ---- triangles by directed edge (u -> v in the triangle's order)
+		HashMap<Long, ArrayList<Integer>> byEdge = new HashMap<Long, ArrayList<Integer>>();
+		for (int t = 0; t < nTris; t++)
+			for (int k = 0; k < 3; k++) {
+				Long e = edge(tris[3 * t + k], tris[3 * t + (k + 1) % 3]);
+				ArrayList<Integer> list = byEdge.get(e);
+				if (list == null)
+					byEdge.put(e, list = new ArrayList<Integer>());
+				list.add(t);
+			}
+		boolean[] used = new boolean[nTris];
+
+		ArrayList<int[]> strips = new ArrayList<int[]>();
+		for (int done = 0; done < nTris;) {
+			// ---- start at the unused triangle with fewest unused neighbors
+			int start = -1;
+			int fewest = Integer.MAX_VALUE;
+			for (int t = 0; t < nTris; t++) {
+				if (used[t])
+					continue;
+				int neighbors = 0;
+				for (int k = 0; k < 3; k++)
+					neighbors += unusedWithEdge(byEdge, used, tris[3 * t + (k + 1) % 3], tris[3 * t + k]);
+				if (neighbors < fewest) {
+					fewest = neighbors;
+					start = t;
+				}
+			}
+			// ---- grow each rotation; keep the longest
+			ArrayList<Integer> best = null;
+			for (int r = 0; r < 3; r++) {
+				ArrayList<Integer> strip = grow(tris, start, r, byEdge, used.clone());
+				if (best == null || strip.size() > best.size())
+					best = strip;
+			}
+			int[] s = new int[best.size()];
+			for (int i = 0; i < s.length; i++)
+				s[i] = best.get(i);
+			// mark the strip's triangles used
+			grow(tris, start, rotationOf(tris, start, s), byEdge, used);
+			strips.add(s);
+			done += s.length - 2;
+		}
+		return strips;
+	}
+
+	// ---------------------- grow -----------------------------------
+	/**
+	 * The strip that starts with triangle start rotated by r, marking the
+	 * triangles it takes in used.
+	 */
+	private static ArrayList<Integer> grow(int[] tris, int start, int r, HashMap<Long, ArrayList<Integer>> byEdge,
+			boolean[] used) {
+		ArrayList<Integer> strip = new ArrayList<Integer>();
+		for (int k = 0; k < 3; k++)
+			strip.add(tris[3 * start + (r + k) % 3]);
+		used[start] = true;
+		while (true) {
+			int n = strip.size();
+			int a = strip.get(n - 2);
+			int b = strip.get(n - 1);
+			// even triangle (a, b, d) has edge a -> b; odd (b, a, d) has b -> a
+			boolean even = (n - 2) % 2 == 0;
+			ArrayList<Integer> candidates = byEdge.get(even ? edge(a, b) : edge(b, a));
+			int next = -1;
+			if (candidates != null)
+				for (int t : candidates)
+					if (!used[t]) {
+						next = t;
+						break;
+					}
+			if (next == -1)
+				return strip;
+			used[next] = true;
+			for (int k = 0; k < 3; k++) {
+				int v = tris[3 * next + k];
+				if (v != a && v != b) {
+					strip.add(v);
+					break;
+				}
+			}
+		}
+	}
+
+	// ---------------------- rotationOf -----------------------------------
+	private static int rotationOf(int[] tris, int t, int[] strip) {
+		for (int r = 0; r < 3; r++)
+			if (tris[3 * t + r] == strip[0] && tris[3 * t + (r + 1) % 3] == strip[1])
+				return r;
+		return 0;
+	}
+
+	// ---------------------- unusedWithEdge -----------------------------------
+	private static int unusedWithEdge(HashMap<Long, ArrayList<Integer>> byEdge, boolean[] used, int u, int v) {
+		ArrayList<Integer> list = byEdge.get(edge(u, v));
+		int n = 0;
+		if (list != null)
+			for (int t : list)
+				if (!used[t])
+					n++;
+		return n;
+	}
+
+	private static Long edge(int u, int v) {
+		return ((long) u << 32) | (v & 0xffffffffL);
+	}
+
+	// ---------------------- expand -----------------------------------
+	/**
+	 * Attribute array with one entry per stream vertex.
+	 */
+	private static float[] expand(float[] data, int nVerts, int[] stream) {
+		if (data == null)
+			return null;
+		int size = data.length / nVerts;
+		float[] out = new float[stream.length * size];
+		for (int i = 0; i < stream.length; i++)
+			System.arraycopy(data, stream[i] * size, out, i * size, size);
+		return out;
+	}
+
+	private static int bytesPerIndex(int indexType) {
+		return indexType == GL_UNSIGNED_BYTE ? 1 : indexType == GL_UNSIGNED_SHORT ? 2 : 4;
+	}
+
+	private static void put(ByteBuffer buf, int index, int bytes) {
+		if (bytes == 1)
+			buf.put((byte) index);
+		else if (bytes == 2)
+			buf.putShort((short) index);
+		else
+			buf.putInt(index);
+	}
+}
@@ -0,0 +1,371 @@
+
+/**
+ * TransformStore.java - location, rotation and size of every shape, and its
+ *           model matrix, in contiguous off-heap arrays (structure of
+ *           arrays); a Shape3D is a slot in it.
+ *
+ * Setters only record the parameters and mark the slot dirty. updateDirty
+ * recomputes the matrices of dirty slots in one pass in slot order,
+ * reading each parameter array front to back, and marks them moved.
+ * Renderers test changed() to find matrices they must send again; moved
+ * flags are cleared by endFrame, after every renderer has seen them.
+ * update recomputes a single slot for callers outside the frame (e.g.
+ * renderers built at construction).
+ *
+ * Per object: 10 parameter floats and a 16 float matrix, 104 bytes off
+ * heap, plus two flag bits on the heap.
+ *
+ * updateRange does the same for a range of slots starting on a multiple of
+ * 64, with the caller's scratch matrix, so ranges that share no flag word
+ * can be updated on different threads (Animator).
+ *
+ * 10/17/26 created to replace the Matrix4f, modelBuf and loose transform
+ *          fields of each Shape3D.
+ * 10/17/26 updateRange for parallel updates of disjoint slot ranges.
+ * 10/17/26 copy, copyMatrices and setMatrices for the st simulation
+ *          thread's own store and its snapshots.
+ * 10/17/26 anyChanged, so a static scene costs no per-shape scan (db).
+ * 10/17/26 copyMatrix, a read-only getMatrix for the op worker threads.
+ */
+import java.nio.*;
+import java.util.*;
+
+import org.joml.Matrix4f;
+import org.lwjgl.system.MemoryUtil;
+
+public class TransformStore {
+	// ------------------ class variables ------------------------------
+	// parameter arrays
+	static final int TX = 0, TY = 1, TZ = 2; // location
+	static final int ANGLE = 3, AX = 4, AY = 5, AZ = 6; // rotation
+	static final int SX = 7, SY = 8, SZ = 9; // size
+	static final int FIELDS = 10;
+	static final int MATRIX_FLOATS = 16;
+	static final int BYTES_PER_OBJECT = (FIELDS + MATRIX_FLOATS) * 4;
+
+	private static final int INITIAL_CAPACITY = 1024;
+
+	// ------------------ instance variables ----------------------------
+	private NativeArena memory = NativeArena.pool("TransformStore"); // freed by close
+	private FloatBuffer[] fields = new FloatBuffer[FIELDS]; // from memory
+	private FloatBuffer matrices; // from memory
+	private FloatBuffer uploadView; // positioned at one matrix by matrix()
+	private long[] dirty = new long[INITIAL_CAPACITY / 64]; // params changed
+	private long[] moved = new long[INITIAL_CAPACITY / 64]; // matrix changed
+	private int capacity = INITIAL_CAPACITY;
+	private int size = 0;
+	private Matrix4f scratch = new Matrix4f();
+
+	// -------- accounting since last report
+	private long updated = 0;
+	private long updateNanos = 0;
+
+	// ------------------ constructor ------------------------
+	public TransformStore() {
+		for (int f = 0; f < FIELDS; f++)
+			fields[f] = memory.allocFloat(capacity);
+		matrices = memory.allocFloat(capacity * MATRIX_FLOATS);
+		uploadView = matrices.duplicate();
+	}
+
+	// ------------------------ close -----------------------------
+	/**
+	 * Free the arrays; the store must not be used afterwards.
+	 */
+	public void close() {
+		memory.close();
+	}
+
+	// ------------------------ add -----------------------------
+	/**
+	 * A new slot at the origin, unrotated, of size 1.
+	 */
+	int add() {
+		if (size == capacity)
+			grow();
+		int slot = size++;
+		setLocation(slot, 0, 0, 0);
+		setRotate(slot, 0, 0, 1, 0);
+		setSize(slot, 1, 1, 1);
+		return slot;
+	}
+
+	// ------------------------ setters -----------------------------
+	void setLocation(int slot, float x, float y, float z) {
+		fields[TX].put(slot, x);
+		fields[TY].put(slot, y);
+		fields[TZ].put(slot, z);
+		markDirty(slot);
+	}
+
+	void setRotate(int slot, float angle, float dx, float dy, float dz) {
+		fields[ANGLE].put(slot, angle);
+		fields[AX].put(slot, dx);
+		fields[AY].put(slot, dy);
+		fields[AZ].put(slot, dz);
+		markDirty(slot);
+	}
+
+	void setSize(int slot, float xs, float ys, float zs) {
+		fields[SX].put(slot, xs);
+		fields[SY].put(slot, ys);
+		fields[SZ].put(slot, zs);
+		markDirty(slot);
+	}
+
+	/**
+	 * Install a matrix computed elsewhere from the slot's parameters; 16
+	 * floats from offset in Matrix4f.get order.
+	 */
+	void setMatrix(int slot, float[] m, int offset) {
+		int at = slot * MATRIX_FLOATS;
+		for (int i = 0; i < MATRIX_FLOATS; i++)
+			matrices.put(at + i, m[offset + i]);
+		clearDirty(slot);
+		moved[slot >>> 6] |= 1L << slot;
+	}
+
+	// ------------------------ getters -----------------------------
+	float get(int slot, int field) {
+		return fields[field].get(slot);
+	}
+
+	/**
+	 * Largest of the three size factors.
+	 */
+	float maxSize(int slot) {
+		return Math.max(fields[SX].get(slot), Math.max(fields[SY].get(slot), fields[SZ].get(slot)));
+	}
+
+	/**
+	 * True if the slot's matrix is stale or was recomputed this frame.
+	 */
+	boolean changed(int slot) {
+		long bit = 1L << slot;
+		return ((dirty[slot >>> 6] | moved[slot >>> 6]) & bit) != 0;
+	}
+
+	/**
+	 * True if changed would be true for some slot; a scan of the flag words
+	 * only, so callers can skip a per-shape scan on frames where nothing
+	 * moved.
+	 */
+	boolean anyChanged() {
+		int words = (size + 63) >>> 6;
+		for (int w = 0; w < words; w++)
+			if ((dirty[w] | moved[w]) != 0)
+				return true;
+		return false;
+	}
+
+	int size() {
+		return size;
+	}
+
+	// ------------------------ matrix access -----------------------------
+	/**
+	 * Copy the slot's current matrix into dest at float index.
+	 */
+	void getMatrix(int slot, int index, FloatBuffer dest) {
+		update(slot);
+		MemoryUtil.memCopy(MemoryUtil.memAddress(matrices, slot * MATRIX_FLOATS), MemoryUtil.memAddress(dest, index),
+				MATRIX_FLOATS * 4);
+	}
+
+	/**
+	 * Copy the slot's matrix into dest at float index without updating it:
+	 * reads only, so any thread may call it once updateDirty has run. The
+	 * slot must not be dirty.
+	 */
+	void copyMatrix(int slot, int index, FloatBuffer dest) {
+		assert (dirty[slot >>> 6] & (1L << slot)) == 0 : "slot " + slot + " copied before updateDirty";
+		MemoryUtil.memCopy(MemoryUtil.memAddress(matrices, slot * MATRIX_FLOATS), MemoryUtil.memAddress(dest, index),
+				MATRIX_FLOATS * 4);
+	}
+
+	/**
+	 * Set dest to the slot's current matrix.
+	 */
+	Matrix4f getMatrix(int slot, Matrix4f dest) {
+		update(slot);
+		int at = slot * MATRIX_FLOATS;
+		FloatBuffer m = matrices;
+		return dest.set(m.get(at), m.get(at + 1), m.get(at + 2), m.get(at + 3), m.get(at + 4), m.get(at + 5),
+				m.get(at + 6), m.get(at + 7), m.get(at + 8), m.get(at + 9), m.get(at + 10), m.get(at + 11),
+				m.get(at + 12), m.get(at + 13), m.get(at + 14), m.get(at + 15));
+	}
+
+	/**
+	 * The slot's current matrix as a 16 float buffer for glUniformMatrix4fv.
+	 * The buffer is reused by the next call; GL thread only.
+	 */
+	FloatBuffer matrix(int slot) {
+		update(slot);
+		int at = slot * MATRIX_FLOATS;
+		uploadView.limit(at + MATRIX_FLOATS).position(at);
+		return uploadView;
+	}
+
+	// ------------------------ update -----------------------------
+	/**
+	 * Recompute one slot's matrix if it is dirty.
+	 */
+	void update(int slot) {
+		if ((dirty[slot >>> 6] & (1L << slot)) == 0)
+			return;
+		compute(slot, scratch);
+		clearDirty(slot);
+		moved[slot >>> 6] |= 1L << slot;
+		updated++;
+	}
+
+	// ------------------------ updateDirty -----------------------------
+	/**
+	 * Recompute every dirty matrix in slot order; returns how many.
+	 */
+	int updateDirty() {
+		long start = System.nanoTime();
+		int n = updateRange(0, size, scratch);
+		updated += n;
+		updateNanos += System.nanoTime() - start;
+		return n;
+	}
+
+	// ------------------------ updateRange -----------------------------
+	/**
+	 * Recompute the dirty matrices of slots from (a multiple of 64) up to
+	 * to, using m as scratch; returns how many. Touches only the flag words
+	 * of the range and is not counted in the report; safe to run on other
+	 * threads for disjoint ranges while nothing else changes the store.
+	 */
+	int updateRange(int from, int to, Matrix4f m) {
+		int n = 0;
+		int end = Math.min(dirty.length, (to + 63) >>> 6);
+		for (int w = from >>> 6; w < end; w++) {
+			long bits = dirty[w];
+			if (bits == 0)
+				continue;
+			dirty[w] = 0;
+			moved[w] |= bits;
+			while (bits != 0) {
+				compute((w << 6) + Long.numberOfTrailingZeros(bits), m);
+				bits &= bits - 1;
+				n++;
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * Matrices recomputed outside updateDirty and update (e.g. by
+	 * updateRange), for the report.
+	 */
+	void countUpdated(int n) {
+		updated += n;
+	}
+
+	// ------------------------ copy -----------------------------
+	/**
+	 * A new store with the same slots and parameters, matrices up to date.
+	 */
+	TransformStore copy() {
+		TransformStore c = new TransformStore();
+		for (int i = 0; i < size; i++)
+			c.add();
+		for (int f = 0; f < FIELDS; f++)
+			MemoryUtil.memCopy(MemoryUtil.memAddress(fields[f], 0), MemoryUtil.memAddress(c.fields[f], 0), size * 4);
+		c.updateDirty();
+		c.endFrame();
+		c.updated = 0;
+		c.updateNanos = 0;
+		return c;
+	}
+
+	// ------------------------ copyMatrices -----------------------------
+	/**
+	 * Copy every slot's matrix, as it is, to dest (size * 16 floats).
+	 */
+	void copyMatrices(FloatBuffer dest) {
+		MemoryUtil.memCopy(MemoryUtil.memAddress(matrices, 0), MemoryUtil.memAddress(dest, 0),
+				size * MATRIX_FLOATS * 4);
+	}
+
+	// ------------------------ setMatrices -----------------------------
+	/**
+	 * Replace every slot's matrix by one computed elsewhere (size * 16
+	 * floats in src) and mark them all moved. The location is taken from
+	 * each matrix's translation, for culling; the other parameters are
+	 * left as they are.
+	 */
+	void setMatrices(FloatBuffer src) {
+		MemoryUtil.memCopy(MemoryUtil.memAddress(src, 0), MemoryUtil.memAddress(matrices, 0),
+				size * MATRIX_FLOATS * 4);
+		for (int i = 0; i < size; i++) {
+			int at = i * MATRIX_FLOATS + 12;
+			fields[TX].put(i, matrices.get(at));
+			fields[TY].put(i, matrices.get(at + 1));
+			fields[TZ].put(i, matrices.get(at + 2));
+		}
+		int words = (size + 63) >>> 6;
+		Arrays.fill(dirty, 0, words, 0L);
+		Arrays.fill(moved, 0, words, -1L);
+		if ((size & 63) != 0)
+			moved[words - 1] = (1L << size) - 1; // only slots that exist
+	}
+
+	// ------------------------ endFrame -----------------------------
+	/**
+	 * Every renderer has seen this frame's recomputed matrices.
+	 */
+	void endFrame() {
+		Arrays.fill(moved, 0L);
+	}
+
+	// ------------------------ report -----------------------------
+	/**
+	 * Log matrices recomputed per frame and the bulk update rate over the
+	 * last report interval and reset the counts.
+	 */
+	public void report(int frames) {
+		float n = frames == 0 ? 1 : frames;
+		double rate = updateNanos == 0 ? 0 : updated * 1e3 / updateNanos; // M/s
+		P3.log(String.format("Transforms: %d objects, %d bytes/object; updated per frame %10.1f, %.1f M matrices/s",
+				size, BYTES_PER_OBJECT, updated / n, rate));
+		updated = 0;
+		updateNanos = 0;
+	}
+
+	// ++++++++++++++++++++ private methods +++++++++++++++++++++++++++++++
+	/**
+	 * The model matrix: translate, then rotate, then scale, as
+	 * Shape3D.updateModelMatrix always has.
+	 */
+	private void compute(int slot, Matrix4f m) {
+		FloatBuffer[] f = fields;
+		m.identity().translate(f[TX].get(slot), f[TY].get(slot), f[TZ].get(slot))
+				.rotate(f[ANGLE].get(slot), f[AX].get(slot), f[AY].get(slot), f[AZ].get(slot))
+				.scale(f[SX].get(slot), f[SY].get(slot), f[SZ].get(slot));
+		m.get(slot * MATRIX_FLOATS, matrices);
+	}
+
+	private void markDirty(int slot) {
+		dirty[slot >>> 6] |= 1L << slot;
+	}
+
+	private void clearDirty(int slot) {
+		dirty[slot >>> 6] &= ~(1L << slot);
+	}
+
+	/**
+	 * Double the capacity; realloc keeps the contents.
+	 */
+	private void grow() {
+		capacity *= 2;
+		for (int f = 0; f < FIELDS; f++)
+			fields[f] = memory.realloc(fields[f], capacity);
+		matrices = memory.realloc(matrices, capacity * MATRIX_FLOATS);
+		uploadView = matrices.duplicate();
+		dirty = Arrays.copyOf(dirty, capacity / 64);
+		moved = Arrays.copyOf(moved, capacity / 64);
+	}
+}
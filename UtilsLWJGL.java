@@ -38,6 +38,16 @@
  *              where getenv is dangerous to use; instead use System.getProperty
  * 01/19/17 rdb Modified UtilsLWJGL.openWindow to better handle Linux.
  * 01/26/17 rdb Added prefix-based makeShaderProgram method
+ * 10/17/26 Added makeShaderProgram( prefix, defines ): #define lines are
+ *          inserted after each shader's #version line so optional features
+ *          can live in #ifdef blocks of one shader file.
+ * 10/17/26 Added genVertexArray/genBuffer, which count the GL objects a
+ *          test configuration creates.
+ * 10/17/26 makeShaderProgram loads and stores program binaries through
+ *          ProgramCache and logs compile/link vs cache load time.
+ * 10/17/26 genVertexArray tells GLState about the new vertex array.
+ * 10/17/26 createShader with defines replaces the source's #version line
+ *          with the given version instead of adding a second one.
  */
 
 //rdb package org.lwjgl.demo.opengl.util;
@@ -65,6 +75,10 @@ import java.util.regex.Pattern;
 
 public class UtilsLWJGL 
 {
+    //------------------------ GL object counts ----------------------------
+    static int vertexArraysCreated = 0;
+    static int buffersCreated = 0;
+
     //------------------------ openWindow ----------------------------
     /**
      * Do whatever is necessary to open a GLFW window. This code is heavily
@@ -246,6 +260,24 @@ public class UtilsLWJGL
         return windowId;
     }
 
+    //------------------- genVertexArray/genBuffer ---------------------------
+    /**
+     * glGenVertexArrays/glGenBuffers that also count what they create, so
+     * each test configuration can report its GL object total.
+     * @return int    new object id
+     */
+    public static int genVertexArray()
+    {
+        vertexArraysCreated++;
+        int id = glGenVertexArrays();
+        GLState.created( id );
+        return id;
+    }
+    public static int genBuffer()
+    {
+        buffersCreated++;
+        return glGenBuffers();
+    }
     //------------------- glError( String ) ----------------------------------
     /**
      * Utility function to check for gl error condition and print a message 
@@ -320,6 +352,24 @@ public class UtilsLWJGL
     {
     	return makeShaderProgram( prefix + ".vsh", prefix + ".fsh" ); 
     }
+    //--------------- makeShaderProgram( String, String[] ) ---------------
+    /**
+     * Create the shader programs from a filename prefix as above, but
+     * compile both shaders with a "#define name" line for each of the
+     * given names.
+     *   
+     * @param  prefix String     filename prefix for both shaders
+     * @param  defines String[]  names to #define; may be null or empty
+     * @return long                   shader program id
+ 	 *
+	 * @throws IOException
+     */
+    public static int makeShaderProgram( String prefix, String[] defines ) 
+    		throws IOException
+    {
+    	return makeShaderProgram( prefix + ".vsh", prefix + ".fsh", null, 
+    	                          defines ); 
+    }
     //--------------- makeShaderProgram( String, String ) ---------------
     /**
      * Create the shader programs for this application. This code is
@@ -354,12 +404,52 @@ public class UtilsLWJGL
                                          String version ) 
     		throws IOException
     {
-		int vshader = createShader( vertexShader, GL_VERTEX_SHADER );
-		int fshader = createShader( fragmentShader, GL_FRAGMENT_SHADER );
+        return makeShaderProgram( vertexShader, fragmentShader, version, null );
+    }
+    /**
+     * Create shader programs for a specific opengl version with #defines.
+     * @param vertexShader String     filename for the vertex shader code
+     * @param fragmentShader String   filename for the fragment shader code
+     * @param version String          desired opengl version or null
+     * @param defines String[]        names to #define; may be null
+     * @return long                   shader program id
+	 *
+	 * @throws IOException
+     */
+    public static int makeShaderProgram( String vertexShader, 
+                                         String fragmentShader, 
+                                         String version,
+                                         String[] defines ) 
+    		throws IOException
+    {
+		long start = System.nanoTime();
+		String name = vertexShader + "/" + fragmentShader;
+		boolean cached = ProgramCache.enabled();
+		String key = null;
+		if ( cached )
+		{
+			key = ProgramCache.key( vertexShader, fragmentShader, version, 
+			                        defines );
+			int program = ProgramCache.load( key );
+			if ( program != 0 )
+			{
+				P3.log( String.format( "Shader program %s: loaded from cache in %6.2f ms",
+				                       name, ( System.nanoTime() - start ) / 1.0e6 ));
+				return program;
+			}
+		}
+
+		int vshader = createShader( vertexShader, GL_VERTEX_SHADER, version, 
+		                            defines );
+		int fshader = createShader( fragmentShader, GL_FRAGMENT_SHADER, version,
+		                            defines );
 
 		int program = glCreateProgram();
 		glAttachShader( program, vshader );
 		glAttachShader( program, fshader );
+		if ( cached )
+			GL41.glProgramParameteri( program, 
+			            GL41.GL_PROGRAM_BINARY_RETRIEVABLE_HINT, GL_TRUE );
 
 		glLinkProgram( program );
 		int linked = glGetProgrami( program, GL_LINK_STATUS );
@@ -372,6 +462,15 @@ public class UtilsLWJGL
         {
 			throw new AssertionError( "Could not link program" );
 		}
+		double ms = ( System.nanoTime() - start ) / 1.0e6;
+		String stored = "";
+		if ( cached )
+		{
+			int bytes = ProgramCache.store( key, program );
+			stored = bytes == 0 ? "; not cached" : "; cached " + bytes + " bytes";
+		}
+		P3.log( String.format( "Shader program %s: compiled and linked in %6.2f ms%s",
+		                       name, ms, stored ));
 		return program;
 	}
     //------------- checkBuffer ---------------------------
@@ -601,6 +700,28 @@ public class UtilsLWJGL
      */
     public static int createShader( String resource, int type, String version ) 
            throws IOException 
+    {
+        return createShader( resource, type, version, null );
+    }
+
+    /**
+     * Create a shader object from the given classpath resource with a
+     * "#define name" line for each name. The defines go right after the
+     * #version line of the source, since #version must come first. A
+     * version given here replaces the source's #version line.
+     *
+     * @param resource   the class path
+     * @param type       the shader type
+     * @param version    the GLSL version to prepend to the source, or null
+     * @param defines    names to #define, or null
+     *
+     * @return the shader object id
+     *
+     * @throws IOException
+     */
+    public static int createShader( String resource, int type, String version,
+                                    String[] defines ) 
+           throws IOException 
     {
         int shader = glCreateShader( type );
 
@@ -608,7 +729,24 @@ public class UtilsLWJGL
         //          The code increases the buffer if it is not large enough
         ByteBuffer source = ioResourceToByteBuffer( resource, 8192 );
 
-        if ( version == null ) 
+        if ( defines != null && defines.length > 0 )
+        {
+            String text = MemoryUtil.memUTF8( source );
+            String head = "";
+            if ( text.startsWith( "#version" ) )
+            {
+                int eol = text.indexOf( '\n' ) + 1;
+                head = text.substring( 0, eol );
+                text = text.substring( eol );
+            }
+            if ( version != null )   // replaces the source's own #version
+                head = "#version " + version + "\n";
+            StringBuilder defineLines = new StringBuilder();
+            for ( String name: defines )
+                defineLines.append( "#define " ).append( name ).append( '\n' );
+            glShaderSource( shader, head, defineLines, text );
+        }
+        else if ( version == null ) 
         {
             PointerBuffer strings = MemoryUtil.memAllocPointer( 1 );
             IntBuffer lengths = MemoryUtil.memAllocInt( 1 );
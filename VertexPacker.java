@@ -0,0 +1,110 @@
+
+/**
+ * VertexPacker.java - packs float vertex attributes into compact GPU
+ *           formats for the cp vertex format option.
+ *
+ *   positions  4 x GL_HALF_FLOAT, w = 1              8 bytes
+ *   normals    GL_INT_2_10_10_10_REV, normalized     4 bytes
+ *   colors     4 x GL_UNSIGNED_BYTE, normalized      4 bytes
+ *
+ * 16 bytes a vertex instead of 40 (c3) or 48 (c4) bytes of floats. Positions
+ * get a 4th component so every attribute stays 4-byte aligned. Normals are
+ * normalized before packing since the signed 10-bit fields only hold -1..1;
+ * the shader normalizes them anyway.
+ *
+ * 10/17/26 created for the cp vertex format option.
+ * 10/17/26 pack allocates from the caller's NativeArena.
+ */
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL20.*;
+import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL33.*;
+
+import java.nio.*;
+
+public class VertexPacker {
+	// ------------------ class variables ------------------------------
+	// attribute kinds
+	static final int POSITION = 0;
+	static final int NORMAL = 1;
+	static final int COLOR = 2;
+
+	static final int[] BYTES = { 8, 4, 4 }; // packed bytes per vertex by kind
+
+	// ------------------------ pack -----------------------------
+	/**
+	 * Pack nVerts attributes of the given kind, size floats each, starting
+	 * at floats.position(), into a buffer from arena.
+	 */
+	static ByteBuffer pack(NativeArena arena, FloatBuffer floats, int nVerts, int size, int kind) {
+		ByteBuffer out = arena.alloc(nVerts * BYTES[kind]);
+		int at = floats.position();
+		for (int v = 0; v < nVerts; v++, at += size) {
+			float x = floats.get(at);
+			float y = size > 1 ? floats.get(at + 1) : 0;
+			float z = size > 2 ? floats.get(at + 2) : 0;
+			float w = size > 3 ? floats.get(at + 3) : 1;
+			if (kind == POSITION) {
+				out.putShort(toHalf(x)).putShort(toHalf(y)).putShort(toHalf(z)).putShort(toHalf(w));
+			} else if (kind == NORMAL) {
+				float len = (float) Math.sqrt(x * x + y * y + z * z);
+				if (len > 0) {
+					x /= len;
+					y /= len;
+					z /= len;
+				}
+				out.putInt(snorm10(x) | snorm10(y) << 10 | snorm10(z) << 20);
+			} else {
+				out.put(unorm8(x)).put(unorm8(y)).put(unorm8(z)).put(unorm8(w));
+			}
+		}
+		out.flip();
+		return out;
+	}
+
+	// ------------------------ describe -----------------------------
+	/**
+	 * glVertexAttribPointer for a packed attribute of the given kind in the
+	 * buffer bound to GL_ARRAY_BUFFER.
+	 */
+	static void describe(int attrLoc, int kind, long offset) {
+		GLState.enableVertexAttribArray(attrLoc);
+		if (kind == POSITION)
+			glVertexAttribPointer(attrLoc, 4, GL_HALF_FLOAT, false, 0, offset);
+		else if (kind == NORMAL)
+			glVertexAttribPointer(attrLoc, 4, GL_INT_2_10_10_10_REV, true, 0, offset);
+		else
+			glVertexAttribPointer(attrLoc, 4, GL_UNSIGNED_BYTE, true, 0, offset);
+	}
+
+	// ++++++++++++++++++++ private methods +++++++++++++++++++++++++++++++
+	// ---------------------- toHalf -----------------------------------
+	/**
+	 * IEEE half float bits of f, rounded to nearest; overflow gives the
+	 * largest half, tiny values become half denormals or 0.
+	 */
+	static short toHalf(float f) {
+		int bits = Float.floatToIntBits(f);
+		int sign = (bits >>> 16) & 0x8000;
+		int abs = bits & 0x7fffffff;
+		int val = abs + 0x1000; // round the 13 dropped bits
+		if (abs >= 0x7f800000) // inf or NaN
+			return (short) (sign | 0x7c00 | (abs > 0x7f800000 ? 0x200 : 0));
+		if (val >= 0x47800000) // too big for a half
+			return (short) (sign | 0x7bff);
+		if (val >= 0x38800000) // normal half
+			return (short) (sign | ((val - 0x38000000) >>> 13));
+		if (val < 0x33000000) // too small even for a denormal
+			return (short) sign;
+		int exp = abs >>> 23;
+		return (short) (sign | ((((abs & 0x7fffff) | 0x800000) + (0x800000 >>> (exp - 102))) >>> (126 - exp)));
+	}
+
+	private static int snorm10(float v) {
+		return Math.round(Math.max(-1, Math.min(1, v)) * 511) & 0x3ff;
+	}
+
+	private static byte unorm8(float v) {
+		return (byte) Math.round(Math.max(0, Math.min(1, v)) * 255);
+	}
+}